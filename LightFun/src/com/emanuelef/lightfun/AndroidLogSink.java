@@ -0,0 +1,22 @@
+package com.emanuelef.lightfun;
+
+import android.util.Log;
+
+import com.emanuelef.lightfun.Bulb.LightLog;
+
+/*
+ * Writes the Bulb package logging to the Android log, LightLog levels are the same.
+ */
+public class AndroidLogSink implements LightLog.Sink {
+	@Override
+	public boolean isLoggable(String tag, int level) {
+		return Log.isLoggable(tag, level);
+	}
+
+	@Override
+	public void log(int level, String tag, String msg, Throwable exc) {
+		if (exc != null)
+			msg = msg + '\n' + Log.getStackTraceString(exc);
+		Log.println(level, tag, msg);
+	}
+}
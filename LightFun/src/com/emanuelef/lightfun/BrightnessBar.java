@@ -40,6 +40,7 @@ public class BrightnessBar extends View {
 	private Paint tickpaint;
 	private Matrix tmatrix;
 	private Bitmap thumb;
+	private float thumbx;		// thumb left edge, as set into tmatrix
 	
 	protected final int BG_RADIUS = 10;
 	
@@ -146,6 +147,7 @@ public class BrightnessBar extends View {
 	/** interfaces */
 	public interface OnBrightnessBarChangeLister {
 		public void onBrightnessChanged(int brightness);
+		public void onBrightnessSelected(int brightness);		// thumb released
 	}
 	
 	public void setOnBrightnessBarChangeLister(OnBrightnessBarChangeLister listener) {
@@ -226,10 +228,8 @@ public class BrightnessBar extends View {
 		switch(event.getAction()) {
 		    case MotionEvent.ACTION_DOWN:
 		    	final float x = event.getX();
-		    	float[] values = new float[9];
-		    	tmatrix.getValues(values);
-		    	final float ledge = values[Matrix.MTRANS_X];
-		    	final float redge = values[Matrix.MTRANS_X] + thumb.getWidth();
+		    	final float ledge = thumbx;
+		    	final float redge = thumbx + thumb.getWidth();
 		    	
 		    	if (canjump || (x >= ledge && x <= redge)) {
 		    		istouched = true;
@@ -249,6 +249,8 @@ public class BrightnessBar extends View {
 		    	if (! istouched)
 		    		return false;
 		    	istouched = false;
+		    	if (blistener != null)
+		    		blistener.onBrightnessSelected(current);
 		        break;
 		        
 		    default:
@@ -258,20 +260,12 @@ public class BrightnessBar extends View {
 	}
 	
 	protected int getDiscrete(int x) {
-		return Math.min(Math.max(piece * (x / piece), min), max);
+		return BrightnessBarGeometry.discrete(x, piece, min, max);
 	}
 	
 	protected void thumbCheckMove(float x) {
-		int newval;
-		
-		if (x <= inrect.left) {
-			newval = min;
-		} else if (x >= inrect.right) {
-			newval = max;
-		} else {
-			x -= thumb.getWidth()/2;
-			newval = getDiscrete((int)(x / inrect.width() * (max-min)));
-		}
+		final int newval = BrightnessBarGeometry.cursorToValue(x, inrect.left, inrect.right,
+				thumb.getWidth()/2, piece, min, max);
 		
 		if (newval != current) {
 			current = newval;
@@ -283,10 +277,11 @@ public class BrightnessBar extends View {
 	}
 	
 	protected float posToCursor(int pos) {
-		return getPaddingLeft() + (pos-min) * inrect.width() / (max-min);
+		return BrightnessBarGeometry.valueToCursor(pos, min, max, getPaddingLeft(), inrect.width());
 	}
 	
 	private void recalcThumbPos() {
-		tmatrix.setTranslate(posToCursor(current), inrect.top);
+		thumbx = posToCursor(current);
+		tmatrix.setTranslate(thumbx, inrect.top);
 	}
 }
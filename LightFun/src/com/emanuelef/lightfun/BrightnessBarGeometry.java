@@ -0,0 +1,28 @@
+package com.emanuelef.lightfun;
+
+/*
+ * Value <-> position math of BrightnessBar, run on every draw and touch event.
+ * Positions are in view pixels, nothing here depends on Android or allocates.
+ */
+class BrightnessBarGeometry {
+	private BrightnessBarGeometry() {}
+
+	// x rounded down to a multiple of piece, within [min, max]
+	static int discrete(int x, int piece, int min, int max) {
+		return Math.min(Math.max(piece * (x / piece), min), max);
+	}
+
+	// left edge of the thumb at value, the track starts at left and is width long
+	static float valueToCursor(int value, int min, int max, float left, float width) {
+		return left + (value - min) * width / (max - min);
+	}
+
+	// value for a touch at x on the track [left, right], half is the thumb half width
+	static int cursorToValue(float x, float left, float right, float half, int piece, int min, int max) {
+		if (x <= left)
+			return min;
+		if (x >= right)
+			return max;
+		return discrete((int) ((x - half) / (right - left) * (max - min)), piece, min, max);
+	}
+}
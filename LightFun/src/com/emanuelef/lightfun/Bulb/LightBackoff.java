@@ -0,0 +1,29 @@
+package com.emanuelef.lightfun.Bulb;
+
+import java.util.Random;
+
+/*
+ * Reconnection policy: exponential backoff with jitter, capped to MAX_MILLIS.
+ * Only used by the engine thread.
+ */
+public class LightBackoff {
+	static final long MIN_MILLIS = 250;
+	static final long MAX_MILLIS = 30000;
+
+	Random random = new Random();
+	long current = MIN_MILLIS;
+
+	// Returns the next delay and doubles the following one
+	public long nextDelay() {
+		// "equal jitter": half fixed, half random
+		final long half = current / 2;
+		final long delay = half + (long) (random.nextDouble() * half);
+		current = Math.min(current * 2, MAX_MILLIS);
+		return delay;
+	}
+
+	// Goes back to the minimum delay
+	public void reset() {
+		current = MIN_MILLIS;
+	}
+}
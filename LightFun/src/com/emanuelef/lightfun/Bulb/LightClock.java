@@ -0,0 +1,15 @@
+package com.emanuelef.lightfun.Bulb;
+
+/*
+ * Monotonic clock for the command path, so that it does not depend on
+ * android.os.SystemClock and can run on a plain JVM.
+ */
+public class LightClock {
+	public static long millis() {
+		return System.nanoTime() / 1000000;
+	}
+
+	public static long nanos() {
+		return System.nanoTime();
+	}
+}
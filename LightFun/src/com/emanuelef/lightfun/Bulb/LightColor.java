@@ -0,0 +1,23 @@
+package com.emanuelef.lightfun.Bulb;
+
+/*
+ * ARGB color helpers, same as android.graphics.Color ones, so that the command
+ * path can run on a plain JVM.
+ */
+public class LightColor {
+	public static int red(int color) {
+		return (color >> 16) & 0xff;
+	}
+
+	public static int green(int color) {
+		return (color >> 8) & 0xff;
+	}
+
+	public static int blue(int color) {
+		return color & 0xff;
+	}
+
+	public static int rgb(int red, int green, int blue) {
+		return 0xff000000 | (red << 16) | (green << 8) | blue;
+	}
+}
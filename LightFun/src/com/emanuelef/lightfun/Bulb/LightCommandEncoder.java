@@ -0,0 +1,104 @@
+package com.emanuelef.lightfun.Bulb;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+
+/*
+ * Encodes gateway requests into a single reusable buffer.
+ * Protocol paths are encoded once, payloads are written digit by digit, so
+ * encoding a command does not allocate. The returned buffer is only valid until
+ * the next encode call.
+ */
+public class LightCommandEncoder {
+	static final int MAX_REQUEST_LEN = 128;		// a full LightEffect
+	static final byte[] HEX_DIGITS = { '0', '1', '2', '3', '4', '5', '6', '7',
+		'8', '9', 'a', 'b', 'c', 'd', 'e', 'f' };
+
+	private static final Charset ASCII = Charset.forName("US-ASCII");
+	private static final byte END = LightExecutor.SRVRPL_END.getBytes(ASCII)[0];
+	private static final byte[] RGBW = LightExecutor.SRVCMD_RGBW.getBytes(ASCII);
+	private static final byte[] WARM = LightExecutor.SRVCMD_WARM.getBytes(ASCII);
+	private static final byte[] EFFECT = LightExecutor.SRVCMD_EFFECT.getBytes(ASCII);
+
+	// Requests without parameters
+	public static final byte[] KEEPALIVE = LightExecutor.SRVCMD_KEEPALIVE.getBytes(ASCII);
+	public static final byte[] ON = LightExecutor.SRVCMD_ON.getBytes(ASCII);
+	public static final byte[] OFF = LightExecutor.SRVCMD_OFF.getBytes(ASCII);
+	public static final byte[] MODECOOL = LightExecutor.SRVCMD_MODECOOL.getBytes(ASCII);
+	public static final byte[] MODEDISCO = LightExecutor.SRVCMD_MODEDISCO.getBytes(ASCII);
+	public static final byte[] MODESOFT = LightExecutor.SRVCMD_MODESOFT.getBytes(ASCII);
+	public static final byte[] QRY_COLOR = LightExecutor.SRVQRY_COLOR.getBytes(ASCII);
+	public static final byte[] QRY_STATE = LightExecutor.SRVQRY_STATE.getBytes(ASCII);
+	public static final byte[] QRY_FULLSTATE = LightExecutor.SRVQRY_FULLSTATE.getBytes(ASCII);
+
+	private final ByteBuffer wbuf = ByteBuffer.allocateDirect(MAX_REQUEST_LEN);
+
+	// path is one of the requests without parameters above
+	public ByteBuffer encode(byte[] path) {
+		wbuf.clear();
+		wbuf.put(path);
+		return end();
+	}
+
+	// /rgb?0xRRGGBB
+	public ByteBuffer encodeColor(int color) {
+		wbuf.clear();
+		wbuf.put(RGBW);
+		wbuf.put((byte) '0');
+		wbuf.put((byte) 'x');
+		putHex(LightColor.red(color));
+		putHex(LightColor.green(color));
+		putHex(LightColor.blue(color));
+		return end();
+	}
+
+	// /warm?N
+	public ByteBuffer encodeWarm(int brightness) {
+		wbuf.clear();
+		wbuf.put(WARM);
+		putDecimal(brightness);
+		return end();
+	}
+
+	// /effect?L,RRGGBBeN,... see LightEffect
+	public ByteBuffer encodeEffect(LightEffect effect) {
+		wbuf.clear();
+		wbuf.put(EFFECT);
+		wbuf.put((byte) (effect.loop ? '1' : '0'));
+		for (int i = 0; i < effect.count; i++) {
+			wbuf.put((byte) ',');
+			putHex(LightColor.red(effect.colors[i]));
+			putHex(LightColor.green(effect.colors[i]));
+			putHex(LightColor.blue(effect.colors[i]));
+			wbuf.put(LightEffect.EASING_CODES[effect.easings[i].ordinal()]);
+			putDecimal(effect.durations[i]);
+		}
+		return end();
+	}
+	
+	private void putHex(int val) {
+		wbuf.put(HEX_DIGITS[(val >> 4) & 0x0f]);
+		wbuf.put(HEX_DIGITS[val & 0x0f]);
+	}
+
+	private void putDecimal(int val) {
+		if (val < 0) {
+			wbuf.put((byte) '-');
+			val = -val;
+		}
+
+		int div = 1;
+		while (val / div >= 10)
+			div *= 10;
+
+		for (; div > 0; div /= 10)
+			wbuf.put((byte) ('0' + (val / div) % 10));
+	}
+
+	private ByteBuffer end() {
+		wbuf.put(END);
+		wbuf.flip();
+		return wbuf;
+	}
+}
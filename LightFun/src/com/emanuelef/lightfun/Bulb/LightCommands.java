@@ -1,18 +1,52 @@
 package com.emanuelef.lightfun.Bulb;
 
-import android.graphics.Color;
-
 public class LightCommands {
-	public enum Types { SET_COLOR, SET_ONOFF, SET_WARM, SET_MODE, QUERY_STATE };
-	public enum Modes { MODE_DISCO, MODE_COOL, MODE_SOFT };
+	public enum Types { SET_COLOR, SET_ONOFF, SET_WARM, SET_MODE, QUERY_STATE, SET_EFFECT };
+	public enum Modes { MODE_DISCO, MODE_COOL, MODE_SOFT, MODE_COLOR, MODE_WARM, MODE_EFFECT };
+	
+	// where a change comes from: only USER changes are sent to the bulb
+	public enum Sources { USER, REMOTE, PROGRAMMATIC };
 	
 	public static class LightCommand {
 		protected Types type;
 		public long time;
 		
+		// LightStats timestamps, nanoseconds
+		public long enqueued;		// last update
+		public long dequeued;
+		public long written;
+		
 		public Types getType() {
 			return this.type;
 		}
+		
+		// copies the values of from, which has the same type
+		void set(LightCommand from) {
+			time = from.time;
+			enqueued = from.enqueued;
+			dequeued = from.dequeued;
+			written = from.written;
+		}
+	}
+	
+	// a command of type, with default values
+	static LightCommand create(Types type) {
+		switch (type) {
+			case SET_COLOR:
+				return new ColorCommand();
+			case SET_ONOFF:
+				return new OnOffCommand();
+			case SET_WARM:
+				return new WarmCommand();
+			case SET_MODE:
+				return new ModeCommand();
+			case SET_EFFECT:
+				return new EffectCommand();
+			default:
+				LightCommand cmd = new LightCommand();
+				cmd.type = type;
+				return cmd;
+		}
 	}
 	
 	public static class ColorCommand extends LightCommand {
@@ -22,9 +56,15 @@ public class LightCommands {
 			this.type = Types.SET_COLOR;
 		}
 		
+		@Override
+		void set(LightCommand from) {
+			super.set(from);
+			color = ((ColorCommand) from).color;
+		}
+		
 		public String toString() {
-			return String.format("0x%02x%02x%02x", Color.red(color),
-					Color.green(color), Color.blue(color));
+			return String.format("0x%02x%02x%02x", LightColor.red(color),
+					LightColor.green(color), LightColor.blue(color));
 		}
 	}
 	
@@ -34,6 +74,12 @@ public class LightCommands {
 		public OnOffCommand() {
 			this.type = Types.SET_ONOFF;
 		}
+		
+		@Override
+		void set(LightCommand from) {
+			super.set(from);
+			on = ((OnOffCommand) from).on;
+		}
 	}
 	
 	public static class WarmCommand extends LightCommand {
@@ -42,6 +88,12 @@ public class LightCommands {
 		public WarmCommand() {
 			this.type = Types.SET_WARM;
 		}
+		
+		@Override
+		void set(LightCommand from) {
+			super.set(from);
+			brightness = ((WarmCommand) from).brightness;
+		}
 	}
 	
 	public static class ModeCommand extends LightCommand {
@@ -50,5 +102,25 @@ public class LightCommands {
 		public ModeCommand() {
 			this.type = Types.SET_MODE;
 		}
+		
+		@Override
+		void set(LightCommand from) {
+			super.set(from);
+			mode = ((ModeCommand) from).mode;
+		}
+	}
+	
+	public static class EffectCommand extends LightCommand {
+		public LightEffect effect;
+		
+		public EffectCommand() {
+			this.type = Types.SET_EFFECT;
+		}
+		
+		@Override
+		void set(LightCommand from) {
+			super.set(from);
+			effect = ((EffectCommand) from).effect;
+		}
 	}
 }
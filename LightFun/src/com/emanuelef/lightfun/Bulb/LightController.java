@@ -1,20 +1,20 @@
 package com.emanuelef.lightfun.Bulb;
 
-import android.app.Activity;
-import android.graphics.Color;
+import java.io.File;
+import java.util.concurrent.Executor;
 
-import com.emanuelef.lightfun.Bulb.LightCommands.ColorCommand;
-import com.emanuelef.lightfun.Bulb.LightCommands.LightCommand;
-import com.emanuelef.lightfun.Bulb.LightCommands.ModeCommand;
 import com.emanuelef.lightfun.Bulb.LightCommands.Modes;
-import com.emanuelef.lightfun.Bulb.LightCommands.OnOffCommand;
+import com.emanuelef.lightfun.Bulb.LightCommands.Sources;
 import com.emanuelef.lightfun.Bulb.LightCommands.Types;
-import com.emanuelef.lightfun.Bulb.LightCommands.WarmCommand;
 
 public class LightController {
 	public static final int SERVER_PORT = 7878;
-	protected LightCommandQueue queue;
+	static final String STATE_FILE = "lightstate";
+	protected LightDesiredState desired;
 	private LightExecutor consumer;
+	private LightTransition transition;
+	private String host = null;
+	private LightState saved = null;
 	
 	public interface onLightStateReceiver
 	{
@@ -25,143 +25,195 @@ public class LightController {
 	public static class LightState {
 		public boolean ison;
 		public int color;
+		public Modes mode;
+		public int brightness;		// warm brightness 0-100
 	}
 	
-	public LightController(onLightStateReceiver receiver, Activity activity, String host) {
-		queue = new LightCommandQueue();
-		consumer = new LightExecutor(queue, receiver, activity, host, SERVER_PORT);
-		new Thread(consumer).start();
+	/* receiver notifications are run by dispatcher, e.g. posting to the UI thread.
+	 * The last state is saved into statedir, null to not save it.
+	 */
+	public LightController(onLightStateReceiver receiver, Executor dispatcher, File statedir, String host) {
+		this(receiver, dispatcher, statedir, host, LightEngine.getDefault());
+	}
+	
+	// all the controllers using the same engine share its I/O thread
+	public LightController(onLightStateReceiver receiver, Executor dispatcher, File statedir, String host, LightEngine engine) {
+		this(receiver, dispatcher, statedir, new LightTcpTransport(host, SERVER_PORT), engine);
+		this.host = host;
+	}
+	
+	// e.g. with the LightLoopbackTransport of the bench module, to run without a gateway
+	public LightController(onLightStateReceiver receiver, Executor dispatcher, File statedir, LightTransport transport, LightEngine engine) {
+		desired = new LightDesiredState(new LightStats());
+		consumer = new LightExecutor(engine, desired, receiver, dispatcher, transport);
+		
+		// the last known state is shown until the gateway replies
+		if (statedir != null) {
+			LightStateStore store = new LightStateStore(new File(statedir, STATE_FILE));
+			saved = store.load();
+			consumer.setStateStore(store);
+		}
+		transition = new LightTransition(desired);
+		consumer.setTransition(transition);
+		desired.setOnChangeListener(consumer);
+		engine.register(consumer);
 	}
 	
 	int interpolateRGB(int a, int b) {
-		return Color.rgb(
-				(Color.red(a) + Color.red(b))/2,
-				(Color.green(a) + Color.green(b))/2,
-				(Color.blue(a) + Color.blue(b))/2
+		return LightColor.rgb(
+				(LightColor.red(a) + LightColor.red(b))/2,
+				(LightColor.green(a) + LightColor.green(b))/2,
+				(LightColor.blue(a) + LightColor.blue(b))/2
 		);
 	}
 	
+	/* the bulb will be brought to the last value written, changes are not queued.
+	 * Values are quantized to the bulb resolution, so the ones it cannot tell apart are not sent.
+	 */
 	public void setColor(int color) {
-		ColorCommand command;
-		final long tstamp = LightCommandQueue.getTimestamp();
-		
-		queue.lock();
-		try {
-			queue.XRemoveType(Types.SET_ONOFF);
-			queue.XRemoveType(Types.SET_WARM);
-			
-			// see if there is something relevant
-			command = (ColorCommand) queue.XGetRelevant(Types.SET_COLOR, tstamp);
-			if (command != null) {
-				// reuse this
-				command.time = tstamp;
-//				command.color = interpolateRGB(color, command.color);
-				command.color = color;
-			} else {
-				// allocate a new command
-				command = new ColorCommand();
-				command.time = tstamp;
-				command.color = color;
-				queue.XPush(command);
-			}
-		} finally {
-			queue.unlock();
+		setColor(color, Sources.USER);
+	}
+	
+	public void setColor(int color, Sources source) {
+		if (! isEcho(Types.SET_COLOR, source)) {
+			transition.cancel();
+			desired.setColor(LightQuantizer.quantizeColor(color));
 		}
 	}
 	
+	/* fades to color in duration milliseconds. Frames follow the rate the gateway
+	 * acknowledges them, the slower ones are skipped. Any other look change stops it.
+	 * A null easing throws IllegalArgumentException, use LightEasing.LINEAR for a plain fade.
+	 */
+	public void setColor(int color, long duration, LightEasing easing) {
+		transition.start(color, duration, easing);
+		consumer.onDesiredChanged();
+	}
+	
 	public void setWarmBright(int brightness) {
+		setWarmBright(brightness, Sources.USER);
+	}
+	
+	public void setWarmBright(int brightness, Sources source) {
 		// 0-100 brightness
-		WarmCommand cmd;
-		final long tstamp = LightCommandQueue.getTimestamp();
-		
-		queue.lock();
-		try {
-			queue.XRemoveType(Types.SET_COLOR);
-			queue.XRemoveType(Types.SET_ONOFF);
-			
-			cmd = (WarmCommand) queue.XGetRelevant(Types.SET_WARM, tstamp);
-			if (cmd != null) {
-				// reuse this
-				cmd.time = tstamp;
-				cmd.brightness = brightness;
-			} else {
-				// allocate a new command
-				cmd = new WarmCommand();
-				cmd.time = tstamp;
-				cmd.brightness = brightness;
-				queue.XPush(cmd);
-			}
-		} finally {
-			queue.unlock();
+		if (! isEcho(Types.SET_WARM, source)) {
+			transition.cancel();
+			desired.setWarm(LightQuantizer.quantizeWarm(brightness));
 		}
 	}
 	
+	// color changes smaller than deltaE (CIE76, 2.3 is just noticeable) are not sent. 0 disables
+	public void setColorThreshold(double deltaE) {
+		desired.setColorThreshold(deltaE);
+	}
+	
 	public void setOn(boolean ison) {
-		final long tstamp = LightCommandQueue.getTimestamp();
-		
-		queue.lock();
-		try {
-			// Remove any color commands
-			queue.XRemoveType(Types.SET_COLOR);
-			queue.XRemoveType(Types.SET_WARM);
-			
-			OnOffCommand cmd = (OnOffCommand) queue.XGetSingle(Types.SET_ONOFF);
-			if (cmd != null) {
-				// Reset
-				cmd.time = tstamp;
-				cmd.on = ison;
-			} else {
-				cmd = new OnOffCommand();
-				cmd.time = tstamp;
-				cmd.on = ison;
-				queue.XPush(cmd);
-			}
-		} finally {
-			queue.unlock();
+		setOn(ison, Sources.USER);
+	}
+	
+	public void setOn(boolean ison, Sources source) {
+		if (! isEcho(Types.SET_ONOFF, source))
+			desired.setOn(ison);
+	}
+	
+	// effect modes only: MODE_COLOR and MODE_WARM need a value, see setColor and setWarmBright
+	public void setMode(Modes mode, Sources source) {
+		if (! isEcho(Types.SET_MODE, source)) {
+			transition.cancel();
+			desired.setMode(mode);
 		}
 	}
 	
 	private void setMode(Modes mode) {
-		final long tstamp = LightCommandQueue.getTimestamp();
-		
-		queue.lock();
-		try {
-			ModeCommand cmd = (ModeCommand) queue.XGetSingle(Types.SET_MODE);
-			
-			if (cmd != null) {
-				// Reset
-				cmd.time = tstamp;
-				cmd.mode = mode;
-			} else {
-				cmd = new ModeCommand();
-				cmd.time = tstamp;
-				cmd.mode = mode;
-				queue.XPush(cmd);
-			}
-		} finally {
-			queue.unlock();
-		}
+		setMode(mode, Sources.USER);
+	}
+	
+	/* Changes not made by the user, e.g. widgets updated with the received state or by other
+	 * widgets, echo a state the bulb already has or a change already sent: they are dropped.
+	 */
+	private boolean isEcho(Types type, Sources source) {
+		if (source == Sources.USER)
+			return false;
+		desired.stats.count(type, LightStats.Counters.ECHOED);
+		return true;
+	}
+	
+	/* uploads an animation to the gateway, which runs it until the next look change.
+	 * Costs a single request whatever its length, and keeps running while the phone sleeps.
+	 * The effect is copied, it needs at least a keyframe: the gateway rejects an empty one.
+	 */
+	public void setEffect(LightEffect effect) {
+		if (effect == null || effect.getKeyframeCount() == 0)
+			throw new IllegalArgumentException("Empty effect");
+
+		transition.cancel();
+		desired.setEffect(effect);
 	}
 	
 	public void setCoolMode() { setMode(Modes.MODE_COOL); }
 	public void setDiscoMode() { setMode(Modes.MODE_DISCO); }
 	public void setSoftMode() { setMode(Modes.MODE_SOFT); }
 	
+	// max number of requests sent before waiting for their replies. 1 disables pipelining
+	public void setPipelineDepth(int depth) {
+		consumer.setPipelineDepth(depth);
+	}
+	
+	// drops the connection and connects again at once, to be called when the network changes
+	public void reconnect() {
+		consumer.reconnect();
+	}
+	
+	// how long the gateway takes to acknowledge a change, 0 if unknown
+	public long getServiceMillis() {
+		return desired.stats.getServiceTime() / 1000000;
+	}
+	
+	// latency histograms and counters, by command type
+	public LightStats.Snapshot getStats() {
+		return desired.stats.snapshot();
+	}
+	
+	public String getHost() {
+		return host;
+	}
+	
+	/* connects to another gateway on the same thread. Changes not yet acknowledged are sent
+	 * to the new one. Nothing happens if host is the current one.
+	 */
+	public void setHost(String host) {
+		if (! host.equals(this.host)) {
+			this.host = host;
+			consumer.setTransport(new LightTcpTransport(host, SERVER_PORT));
+		}
+	}
+	
+	/* the controller can outlive its activity, e.g. on a configuration change: notifications
+	 * go to the last receiver set. null detaches it, notifications are then dropped.
+	 */
+	public void setReceiver(onLightStateReceiver receiver, Executor dispatcher) {
+		consumer.setReceiver(receiver, dispatcher);
+	}
+	
+	public boolean isConnected() {
+		return consumer.isConnected();
+	}
+	
+	// the last state received from the gateway, null if none
+	public LightState getLastState() {
+		return consumer.laststate;
+	}
+	
+	// the state last acknowledged by a gateway, possibly on a previous run. null if none
+	public LightState getSavedState() {
+		return saved;
+	}
+	
 	public void finish() {
 		consumer.end();
 	}
 	
 	public void queryState() {
-		final long tstamp = LightCommandQueue.getTimestamp();
-		
-		queue.lock();
-		try {			
-			LightCommand cmd = new LightCommand();
-			cmd.time = tstamp;
-			cmd.type = Types.QUERY_STATE;
-			queue.XPush(cmd);
-		} finally {
-			queue.unlock();
-		}
+		desired.query();
 	}
 }
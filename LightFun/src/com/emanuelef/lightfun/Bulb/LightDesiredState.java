@@ -0,0 +1,359 @@
+package com.emanuelef.lightfun.Bulb;
+
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.emanuelef.lightfun.Bulb.LightCommands.ColorCommand;
+import com.emanuelef.lightfun.Bulb.LightCommands.EffectCommand;
+import com.emanuelef.lightfun.Bulb.LightCommands.LightCommand;
+import com.emanuelef.lightfun.Bulb.LightCommands.ModeCommand;
+import com.emanuelef.lightfun.Bulb.LightCommands.Modes;
+import com.emanuelef.lightfun.Bulb.LightCommands.OnOffCommand;
+import com.emanuelef.lightfun.Bulb.LightCommands.Types;
+import com.emanuelef.lightfun.Bulb.LightCommands.WarmCommand;
+import com.emanuelef.lightfun.Bulb.LightController.LightState;
+
+/*
+ * The state the user wants the bulb in, written by the UI and reconciled by the executor.
+ * It has two independent fields: power, and look (a color, a warm brightness, an effect
+ * mode or a LightEffect program). A write replaces the previous value of its field, so no command has to cancel
+ * another. A written field is dirty until the executor fetches it; fetchChange skips the
+ * values the gateway already has, so the traffic follows the actual state changes rather
+ * than the number of UI events.
+ * While the gateway is unreachable, writes keep replacing the values, so on reconnection
+ * only the final state is sent. Changes which failed are made dirty again by retry, possibly
+ * held for some time, unless a newer value has been written meanwhile.
+ */
+public class LightDesiredState {
+	Lock mutex = new ReentrantLock();
+	final LightStats stats;
+	volatile OnChangeListener listener;
+
+	// power field
+	boolean ison;
+	boolean powerdirty = false;
+	long powertime;				// when it became dirty
+	long powerupdate;			// LightStats timestamp of the last write
+	long powerhold = 0;			// not fetched before this, see retry
+
+	// look field: looktype is SET_COLOR, SET_WARM, SET_MODE or SET_EFFECT, null if never written
+	Types looktype = null;
+	int color;
+	int brightness;
+	Modes mode;
+	LightEffect effect;
+	boolean lookdirty = false;
+	long looktime;
+	long lookupdate;
+	long lookhold = 0;
+
+	double threshold = 0;		// colors closer than this deltaE are the same
+
+	// returned by fetchChange, one per type: the executor copies them before fetching again
+	final OnOffCommand powercmd = new OnOffCommand();
+	final ColorCommand colorcmd = new ColorCommand();
+	final WarmCommand warmcmd = new WarmCommand();
+	final ModeCommand modecmd = new ModeCommand();
+	final EffectCommand effectcmd = new EffectCommand();
+	final LightCommand querycmd = LightCommands.create(Types.QUERY_STATE);
+
+	// state query, not a state field: always sent
+	boolean query = false;
+	long querytime;
+	long queryupdate;
+	long queryhold = 0;
+
+	// Notified from the writer thread when a field becomes dirty
+	public interface OnChangeListener {
+		void onDesiredChanged();
+	}
+
+	public LightDesiredState(LightStats stats) {
+		this.stats = stats;
+	}
+
+	public void setOnChangeListener(OnChangeListener listener) {
+		this.listener = listener;
+	}
+
+	// colors closer than deltaE to the sent one are not sent. 0 disables
+	public void setColorThreshold(double deltaE) {
+		mutex.lock();
+		try {
+			threshold = deltaE;
+		} finally {
+			mutex.unlock();
+		}
+	}
+
+	private void changed() {
+		final OnChangeListener l = listener;
+		if (l != null)
+			l.onDesiredChanged();
+	}
+
+	// the look field is going to be overwritten with type
+	private void XWriteLook(Types type, long tstamp) {
+		if (lookdirty)
+			stats.count(looktype, (looktype == type) ? LightStats.Counters.COALESCED : LightStats.Counters.DROPPED);
+		else
+			looktime = tstamp;
+		looktype = type;
+		lookdirty = true;
+		lookhold = 0;
+		lookupdate = LightStats.now();
+	}
+
+	public void setOn(boolean on) {
+		mutex.lock();
+		try {
+			if (powerdirty)
+				stats.count(Types.SET_ONOFF, LightStats.Counters.COALESCED);
+			else
+				powertime = LightClock.millis();
+			ison = on;
+			powerdirty = true;
+			powerhold = 0;
+			powerupdate = LightStats.now();
+		} finally {
+			mutex.unlock();
+		}
+		changed();
+	}
+
+	public void setColor(int color) {
+		mutex.lock();
+		try {
+			XWriteLook(Types.SET_COLOR, LightClock.millis());
+			this.color = color;
+		} finally {
+			mutex.unlock();
+		}
+		changed();
+	}
+
+	// 0-100 brightness
+	public void setWarm(int brightness) {
+		mutex.lock();
+		try {
+			XWriteLook(Types.SET_WARM, LightClock.millis());
+			this.brightness = brightness;
+		} finally {
+			mutex.unlock();
+		}
+		changed();
+	}
+
+	public void setMode(Modes mode) {
+		mutex.lock();
+		try {
+			XWriteLook(Types.SET_MODE, LightClock.millis());
+			this.mode = mode;
+		} finally {
+			mutex.unlock();
+		}
+		changed();
+	}
+
+	// effect is copied, later changes to it are not sent
+	public void setEffect(LightEffect effect) {
+		final LightEffect copy = new LightEffect(effect);
+
+		mutex.lock();
+		try {
+			XWriteLook(Types.SET_EFFECT, LightClock.millis());
+			this.effect = copy;
+		} finally {
+			mutex.unlock();
+		}
+		changed();
+	}
+
+	public void query() {
+		mutex.lock();
+		try {
+			if (query) {
+				stats.count(Types.QUERY_STATE, LightStats.Counters.COALESCED);
+			} else {
+				query = true;
+				querytime = LightClock.millis();
+			}
+			queryhold = 0;
+			queryupdate = LightStats.now();
+		} finally {
+			mutex.unlock();
+		}
+		changed();
+	}
+
+	// true if the look field holds the same value of state, as far as the eye can see
+	private boolean XLookEquals(LightState state) {
+		if (state.mode == null)
+			return false;
+
+		switch (looktype) {
+			case SET_COLOR:
+				if (state.mode != Modes.MODE_COLOR)
+					return false;
+				if (threshold > 0)
+					return LightQuantizer.deltaE(state.color, color) < threshold;
+				return ((state.color ^ color) & 0xffffff) == 0;
+			case SET_WARM:
+				return state.mode == Modes.MODE_WARM && state.brightness == brightness;
+			case SET_EFFECT:
+				// a program is restarted even if running
+				return false;
+			default:
+				return state.mode == mode;
+		}
+	}
+
+	private static LightCommand fetched(LightCommand cmd, long time, long enqueued) {
+		cmd.time = time;
+		cmd.enqueued = enqueued;
+		cmd.dequeued = cmd.written = 0;
+		return cmd;
+	}
+
+	private LightCommand XFetchPower() {
+		powercmd.on = ison;
+		powerdirty = false;
+		return fetched(powercmd, powertime, powerupdate);
+	}
+
+	private LightCommand XFetchLook() {
+		LightCommand cmd;
+
+		switch (looktype) {
+			case SET_COLOR:
+				colorcmd.color = color;
+				cmd = colorcmd;
+				break;
+			case SET_WARM:
+				warmcmd.brightness = brightness;
+				cmd = warmcmd;
+				break;
+			case SET_EFFECT:
+				effectcmd.effect = effect;
+				cmd = effectcmd;
+				break;
+			default:
+				modecmd.mode = mode;
+				cmd = modecmd;
+		}
+		lookdirty = false;
+		return fetched(cmd, looktime, lookupdate);
+	}
+
+	private LightCommand XFetchQuery() {
+		query = false;
+		return fetched(querycmd, querytime, queryupdate);
+	}
+
+	/* Returns the oldest change needed to bring the gateway to the desired state, or null.
+	 * The command is owned by the register and only valid until the next call, nothing is
+	 * allocated. Called by a single thread.
+	 * senton (-1 if unknown) and sent are the values the gateway has been told so far:
+	 * dirty fields which already match them are cleaned without sending anything.
+	 * Fields held by retry are skipped until their time.
+	 */
+	public LightCommand fetchChange(int senton, LightState sent) {
+		final long now = LightClock.millis();
+		
+		mutex.lock();
+		try {
+			if (powerdirty && senton == (ison ? 1 : 0)) {
+				powerdirty = false;
+				stats.count(Types.SET_ONOFF, LightStats.Counters.UNCHANGED);
+			}
+			if (lookdirty && XLookEquals(sent)) {
+				lookdirty = false;
+				stats.count(looktype, LightStats.Counters.UNCHANGED);
+			}
+
+			long oldest = Long.MAX_VALUE;
+			int sel = -1;
+
+			if (query && queryhold <= now && querytime < oldest) {
+				oldest = querytime;
+				sel = 0;
+			}
+			if (powerdirty && powerhold <= now && powertime < oldest) {
+				oldest = powertime;
+				sel = 1;
+			}
+			if (lookdirty && lookhold <= now && looktime < oldest)
+				sel = 2;
+
+			switch (sel) {
+				case 0: return XFetchQuery();
+				case 1: return XFetchPower();
+				case 2: return XFetchLook();
+			}
+			return null;
+		} finally {
+			mutex.unlock();
+		}
+	}
+
+	// earliest time a held field can be fetched, Long.MAX_VALUE if none
+	public long nextRetry() {
+		final long now = LightClock.millis();
+		long next = Long.MAX_VALUE;
+		
+		mutex.lock();
+		try {
+			if (query && queryhold > now)
+				next = Math.min(next, queryhold);
+			if (powerdirty && powerhold > now)
+				next = Math.min(next, powerhold);
+			if (lookdirty && lookhold > now)
+				next = Math.min(next, lookhold);
+		} finally {
+			mutex.unlock();
+		}
+		return next;
+	}
+	
+	public void retry(LightCommand cmd) {
+		retry(cmd, 0);
+	}
+	
+	/* A fetched change was lost, e.g. on disconnection: its field becomes dirty again,
+	 * unless it has been rewritten meanwhile. It is not fetched before notbefore
+	 * (LightClock.millis), a newer write cancels this.
+	 */
+	public void retry(LightCommand cmd, long notbefore) {
+		mutex.lock();
+		try {
+			switch (cmd.type) {
+				case QUERY_STATE:
+					if (query)
+						return;
+					query = true;
+					querytime = cmd.time;
+					queryupdate = cmd.enqueued;
+					queryhold = notbefore;
+					break;
+				case SET_ONOFF:
+					if (powerdirty)
+						return;
+					powerdirty = true;
+					powertime = cmd.time;
+					powerupdate = cmd.enqueued;
+					powerhold = notbefore;
+					break;
+				default:
+					if (lookdirty)
+						return;
+					lookdirty = true;
+					looktime = cmd.time;
+					lookupdate = cmd.enqueued;
+					lookhold = notbefore;
+			}
+			stats.count(cmd.type, LightStats.Counters.RETRIED);
+		} finally {
+			mutex.unlock();
+		}
+	}
+}
@@ -0,0 +1,56 @@
+package com.emanuelef.lightfun.Bulb;
+
+/*
+ * Easing curves of a transition, sampled into tables so that a frame costs a lookup.
+ * Progress values are fixed point, ONE is the end of the transition.
+ */
+public enum LightEasing {
+	LINEAR, EASE_IN, EASE_OUT, EASE_IN_OUT;
+
+	static final int STEPS = 256;			// finer than the 0-99 device levels
+	static final int ONE = 1 << 16;
+
+	final int[] table = new int[STEPS + 1];
+
+	static {
+		for (LightEasing easing : values()) {
+			for (int i = 0; i <= STEPS; i++)
+				easing.table[i] = (int) Math.round(easing.curve((double) i / STEPS) * ONE);
+		}
+	}
+
+	// cubic curves, t in [0, 1]
+	private double curve(double t) {
+		switch (this) {
+			case EASE_IN:
+				return t * t * t;
+			case EASE_OUT:
+				return 1 - (1 - t) * (1 - t) * (1 - t);
+			case EASE_IN_OUT:
+				return (t < 0.5) ? 4 * t * t * t : 1 - 4 * (1 - t) * (1 - t) * (1 - t);
+			default:
+				return t;
+		}
+	}
+
+	// eased progress after elapsed of duration, in [0, ONE]
+	int progress(long elapsed, long duration) {
+		if (elapsed >= duration)
+			return ONE;
+		if (elapsed <= 0)
+			return 0;
+		return table[(int) (elapsed * STEPS / duration)];
+	}
+
+	// the color at progress p, per channel
+	static int interpolate(int from, int to, int p) {
+		return LightColor.rgb(
+				channel(LightColor.red(from), LightColor.red(to), p),
+				channel(LightColor.green(from), LightColor.green(to), p),
+				channel(LightColor.blue(from), LightColor.blue(to), p));
+	}
+
+	private static int channel(int from, int to, int p) {
+		return from + (int) (((long) (to - from) * p + ONE / 2) >> 16);
+	}
+}
@@ -0,0 +1,57 @@
+package com.emanuelef.lightfun.Bulb;
+
+/*
+ * An animation run by the gateway: a list of keyframes, each one fading to a color in
+ * some time with an easing curve, optionally repeated.
+ * It is sent as a single /effect request and interpolated by the gateway, so it keeps
+ * running without the phone. Request query:
+ *   <loop 0|1>,<RRGGBB><easing><millis>,...
+ * with easing one of l (linear), i (in), o (out), s (in-out).
+ */
+public class LightEffect {
+	public static final int MAX_KEYFRAMES = 8;			// bounds the request length
+	public static final int MAX_DURATION = 60000;		// per keyframe, milliseconds
+	static final byte[] EASING_CODES = { 'l', 'i', 'o', 's' };		// by LightEasing ordinal
+
+	final boolean loop;
+	final int[] colors = new int[MAX_KEYFRAMES];
+	final int[] durations = new int[MAX_KEYFRAMES];
+	final LightEasing[] easings = new LightEasing[MAX_KEYFRAMES];
+	int count = 0;
+
+	// loop: restart from the first keyframe after the last one
+	public LightEffect(boolean loop) {
+		this.loop = loop;
+	}
+
+	// a copy the caller cannot change, e.g. while the engine thread encodes it
+	LightEffect(LightEffect from) {
+		this.loop = from.loop;
+		System.arraycopy(from.colors, 0, colors, 0, from.count);
+		System.arraycopy(from.durations, 0, durations, 0, from.count);
+		System.arraycopy(from.easings, 0, easings, 0, from.count);
+		this.count = from.count;
+	}
+
+	// fade to color in duration milliseconds. Colors are quantized to the bulb resolution
+	public LightEffect add(int color, int duration, LightEasing easing) {
+		if (easing == null)
+			throw new IllegalArgumentException("Null easing");
+		if (count == MAX_KEYFRAMES)
+			throw new IllegalStateException("Too many keyframes");
+
+		colors[count] = LightQuantizer.quantizeColor(color);
+		durations[count] = Math.max(0, Math.min(duration, MAX_DURATION));
+		easings[count] = easing;
+		count++;
+		return this;
+	}
+
+	public boolean isLoop() {
+		return loop;
+	}
+
+	public int getKeyframeCount() {
+		return count;
+	}
+}
@@ -0,0 +1,144 @@
+package com.emanuelef.lightfun.Bulb;
+
+import java.io.IOException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+
+/*
+ * Single I/O thread serving any number of LightExecutors via a Selector.
+ * Each executor exposes its next timer deadline (reconnection or keep alive),
+ * the engine sleeps until the nearest one or until some I/O or command arrives.
+ */
+public class LightEngine implements Runnable {
+	static final String DEBUG_TAG = "LightEngine";
+	private static LightEngine instance = null;
+
+	Selector selector;
+	List<LightExecutor> executors = new ArrayList<LightExecutor>();
+	ConcurrentLinkedQueue<LightExecutor> added = new ConcurrentLinkedQueue<LightExecutor>();
+	volatile boolean closed = false;
+
+	public LightEngine() throws IOException {
+		selector = Selector.open();
+	}
+
+	// The engine shared by all the controllers. Started on first use.
+	public static synchronized LightEngine getDefault() {
+		if (instance == null) {
+			try {
+				instance = new LightEngine();
+			} catch (IOException exc) {
+				throw new IllegalStateException("Cannot open selector", exc);
+			}
+
+			Thread thread = new Thread(instance, DEBUG_TAG);
+			thread.setDaemon(true);
+			thread.start();
+		}
+		return instance;
+	}
+
+	// Executor will be served from the next loop. Call from any thread.
+	public void register(LightExecutor executor) {
+		added.add(executor);
+		wakeup();
+	}
+
+	// Makes the engine loop run again, e.g. when there are new commands. Call from any thread.
+	public void wakeup() {
+		selector.wakeup();
+	}
+
+	/* stops the engine thread, its executors are closed as by end. Not for the default
+	 * engine, which is shared by all the controllers.
+	 */
+	public void close() {
+		closed = true;
+		try {
+			selector.close();
+		} catch (IOException exc) {
+			LightLog.w(DEBUG_TAG, "Cannot close selector: " + exc.getMessage());
+		}
+	}
+
+	@Override
+	public void run() {
+		LightExecutor executor;
+
+		while (! closed) {
+			while ((executor = added.poll()) != null)
+				executors.add(executor);
+
+			// run due timers and pending commands
+			final long now = LightClock.millis();
+			long deadline = Long.MAX_VALUE;
+			Iterator<LightExecutor> iter = executors.iterator();
+
+			while (iter.hasNext()) {
+				executor = iter.next();
+				try {
+					executor.tick(now);
+				} catch (RuntimeException exc) {
+					fail(executor, exc);
+				}
+
+				if (executor.isFinished())
+					iter.remove();
+				else
+					deadline = Math.min(deadline, executor.nextDeadline());
+			}
+
+			try {
+				if (deadline == Long.MAX_VALUE)
+					selector.select();
+				else if (deadline <= now)
+					selector.selectNow();
+				else
+					selector.select(deadline - now);
+			} catch (IOException exc) {
+				LightLog.e(DEBUG_TAG, "Select error: " + exc.getMessage());
+				continue;
+			} catch (ClosedSelectorException exc) {
+				break;
+			}
+			if (closed)
+				break;
+
+			Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+			while (keys.hasNext()) {
+				SelectionKey key = keys.next();
+				keys.remove();
+
+				if (! key.isValid())
+					continue;
+				
+				executor = (LightExecutor) key.attachment();
+				try {
+					executor.handle(key);
+				} catch (RuntimeException exc) {
+					fail(executor, exc);
+				}
+			}
+		}
+
+		while ((executor = added.poll()) != null)
+			executors.add(executor);
+		for (LightExecutor e: executors)
+			e.abort();
+		executors.clear();
+	}
+	
+	// a failing executor is dropped, so that it cannot stop the thread serving the others
+	private void fail(LightExecutor executor, RuntimeException exc) {
+		// a closed selector only fails the executors of a closing engine
+		if (! closed)
+			LightLog.e(DEBUG_TAG, "Executor failure, dropped", exc);
+		executor.abort();
+	}
+}
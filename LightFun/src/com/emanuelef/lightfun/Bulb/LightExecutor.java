@@ -1,32 +1,33 @@
 package com.emanuelef.lightfun.Bulb;
 
 import java.io.IOException;
-import java.net.InetSocketAddress;
-import java.net.SocketAddress;
 import java.nio.ByteBuffer;
-import java.nio.CharBuffer;
-import java.nio.channels.SocketChannel;
-import java.nio.charset.Charset;
-import java.nio.charset.CharsetDecoder;
-import java.nio.charset.CharsetEncoder;
-
-import android.app.Activity;
-import android.graphics.Color;
-import android.util.Log;
+import java.nio.channels.SelectionKey;
+import java.util.concurrent.Executor;
 
 import com.emanuelef.lightfun.Bulb.LightCommands.ColorCommand;
+import com.emanuelef.lightfun.Bulb.LightCommands.EffectCommand;
 import com.emanuelef.lightfun.Bulb.LightCommands.LightCommand;
 import com.emanuelef.lightfun.Bulb.LightCommands.ModeCommand;
+import com.emanuelef.lightfun.Bulb.LightCommands.Modes;
 import com.emanuelef.lightfun.Bulb.LightCommands.OnOffCommand;
+import com.emanuelef.lightfun.Bulb.LightCommands.Types;
 import com.emanuelef.lightfun.Bulb.LightCommands.WarmCommand;
 import com.emanuelef.lightfun.Bulb.LightController.LightState;
 import com.emanuelef.lightfun.Bulb.LightController.onLightStateReceiver;
 
-public class LightExecutor implements Runnable {
+/*
+ * A gateway connection, driven by a LightEngine.
+ * All the methods but the public ones are called from the engine thread.
+ */
+public class LightExecutor implements LightDesiredState.OnChangeListener {
 	static final String DEBUG_TAG = "LightExecutor";
-	static final int SLEEP_MILLI = 100;
-	static final int CONRETRY_TIMEOUT = 3000;
 	static final int KEEP_ALIVE_SECS = 5;
+	static final int CONNECT_TIMEOUT_SECS = 10;
+	static final int REPLY_TIMEOUT_SECS = 5;		// the gateway replies at once, even when the bulb is busy
+	static final int STABLE_SECS = 5;		// a connection dropped earlier is retried with backoff
+	static final int PIPELINE_DEPTH = 4;		// default max requests waiting a reply
+	static final int MAX_PIPELINE_DEPTH = 16;
 	
 	// Protocol specs
 	static final String SRVCMD_KEEPALIVE = "";
@@ -37,85 +38,230 @@ public class LightExecutor implements Runnable {
 	static final String SRVCMD_MODECOOL = "/cool";
 	static final String SRVCMD_MODEDISCO = "/disco";
 	static final String SRVCMD_MODESOFT = "/soft";
+	static final String SRVCMD_EFFECT = "/effect?";
 	static final String SRVQRY_COLOR = "/color";
 	static final String SRVQRY_STATE = "/ison";
+	static final String SRVQRY_FULLSTATE = "/state";
 	static final String SRVRPL_END = "$";
 	static final String SRVRPL_BAD = "BAD REQUEST";
 	static final String SRVRPL_OFFLINE = "OFFLINE";
+	static final String SRVRPL_ON = "on";
+	static final String SRVRPL_OFF = "off";
+	static final String SRVRPL_SEP = ",";
+	static final String SRVRPL_MODE_COLOR = "color";
+	static final String SRVRPL_MODE_WARM = "white";
+	static final String SRVRPL_MODE_DISCO = "disco";
+	static final String SRVRPL_MODE_COOL = "cool";
+	static final String SRVRPL_MODE_SOFT = "soft";
+	static final String SRVRPL_MODE_EFFECT = "effect";
+	
+	LightTransport transport;
+	volatile LightTransport nexttransport = null;		// set by setTransport
+	boolean opened = false;
+	volatile boolean connected = false;
+	boolean served = false;			// a reply has been received on this connection
+	boolean finished = false;
+	volatile boolean dorun = true;
+	volatile boolean doreconnect = false;
+	LightEngine engine;
+	LightDesiredState desired;
+	volatile onLightStateReceiver receiver;		// null while detached
+	volatile Executor dispatcher;		// runs the notifications, e.g. on the UI thread. null drops them
+	volatile LightState laststate = null;		// last state notified, null if none
+	LightStateStore store = null;
+	LightTransition transition = null;
+	LightState saving = new LightState();
+	LightReplyDecoder decoder = new LightReplyDecoder();
 	
-	SocketChannel sock;
-	boolean dorun = true;
-	LightCommandQueue queue;
-	onLightStateReceiver receiver;
-	Activity activity;
-	String host;
-	int port;
-	ByteBuffer rbuf = ByteBuffer.allocate(256);
-	CharsetEncoder encoder;
-	CharsetDecoder decoder;
+	// inflight requests ring, replies are matched in FIFO order
+	String[] inflight = new String[MAX_PIPELINE_DEPTH + 1];		// a query takes two slots
+	LightCommand[] incmds = new LightCommand[MAX_PIPELINE_DEPTH + 1];		// null if not a desired state change
+	LightCommand[][] inslots = new LightCommand[MAX_PIPELINE_DEPTH + 1][];		// per ring slot, a command of each type
+	long[] insent = new long[MAX_PIPELINE_DEPTH + 1];		// LightClock.millis of the send
+	int inhead = 0;
+	int incount = 0;
+	int unwritten = 0;		// trailing inflight requests still into wbuf
+	volatile int depth = PIPELINE_DEPTH;
+	int color_r = LightReplyDecoder.INVALID_COLOR;		// pending color query reply
+	LightCommandEncoder encoder = new LightCommandEncoder();
+	ByteBuffer wbuf = ByteBuffer.allocateDirect((MAX_PIPELINE_DEPTH + 1) * LightCommandEncoder.MAX_REQUEST_LEN);
 	long alivetime;
+	long retrytime = 0;			// next connection attempt
+	long contime;				// connection attempt start
+	LightBackoff backoff = new LightBackoff();
+	LightBackoff retrybackoff = new LightBackoff();		// changes failed while the bulb is offline
+	LightStats stats;
+	
+	// the state acknowledged by the gateway, and the one it has been told including inflight requests
+	int ackedon = -1;			// -1 if unknown
+	int senton = -1;
+	LightState acked = new LightState();		// look fields only, mode is null if unknown
+	LightState sent = new LightState();
+	int powerinflight = 0;
+	int lookinflight = 0;
 	
-	public LightExecutor(LightCommandQueue queue, onLightStateReceiver receiver, Activity activity, String host, int port) {
-		this.queue = queue;
+	public LightExecutor(LightEngine engine, LightDesiredState desired, onLightStateReceiver receiver, Executor dispatcher, LightTransport transport) {
+		this.engine = engine;
+		this.desired = desired;
+		this.stats = desired.stats;
 		this.receiver = receiver;
-		this.activity = activity;
+		this.dispatcher = dispatcher;
+		this.transport = transport;
 		
-		Charset charset = Charset.forName("UTF-8");
-		this.encoder = charset.newEncoder();
-		this.decoder = charset.newDecoder();		
-		this.host = host;
-		this.port = port;
-		this.sock = null;
+		// fetched commands are copied there, so that sending them does not allocate
+		final Types[] types = Types.values();
+		for (int i=0; i<inslots.length; i++) {
+			inslots[i] = new LightCommand[types.length];
+			for (Types type: types)
+				inslots[i][type.ordinal()] = LightCommands.create(type);
+		}
 	}
 	
 	public boolean isConnected() {
-		if (this.sock != null)
-			return this.sock.isConnected();
-		return false;
+		return connected;
 	}
 	
-	// tries to connect. Calls onConnect. Returns status.
-	protected boolean connect() {
-		boolean ok = false;
-		
-		SocketAddress addr = new InetSocketAddress(host, port);
+	// the acknowledged state is saved there, see saveAcked. Must be set before running
+	public void setStateStore(LightStateStore store) {
+		this.store = store;
+	}
+	
+	// its frames are written when no look change is inflight. Must be set before running
+	public void setTransition(LightTransition transition) {
+		this.transition = transition;
+	}
+	
+	// notifications go to the new receiver, e.g. the activity recreated after a rotation
+	public void setReceiver(onLightStateReceiver receiver, Executor dispatcher) {
+		this.receiver = receiver;
+		this.dispatcher = dispatcher;
+	}
+	
+	// connects to another gateway. Pending changes are kept and sent to the new one
+	public void setTransport(LightTransport transport) {
+		nexttransport = transport;
+		engine.wakeup();
+	}
+	
+	// switches to the next transport, what is known about the old gateway is discarded
+	protected void switchTransport(long now) {
+		final LightTransport next = nexttransport;
 		
+		nexttransport = null;
+		disconnect();
+		transport = next;
+		backoff.reset();
+		retrytime = now;
+		laststate = null;
+	}
+	
+	// starts a non blocking connection. Calls onConnect when done.
+	protected void connect() {
+		contime = LightClock.millis();
+		opened = true;
+		boolean done;
 		try {
-			this.sock = SocketChannel.open();
-			sock.configureBlocking(true);
-			sock.socket().setTcpNoDelay(true);
-			sock.connect(addr);
-			ok = true;
+			done = transport.open(engine.selector, this);
 		} catch (IOException exc) {
-			Log.e(DEBUG_TAG, exc.getMessage());
-			sock = null;
+			connectFailed(exc);
+			return;
+		} catch (RuntimeException exc) {
+			// e.g. an invalid address, the transport is retried as on any other failure
+			connectFailed(exc);
+			return;
 		}
-		
-		if (ok) {
-			alivetime = LightCommandQueue.getTimestamp();
-			onConnect();
+		if (done)
+			connected();
+	}
+	
+	// completes a pending connection, true when established
+	protected boolean finishConnect() {
+		boolean done;
+		try {
+			done = transport.finishConnect();
+		} catch (IOException exc) {
+			connectFailed(exc);
+			return false;
+		} catch (RuntimeException exc) {
+			connectFailed(exc);
+			return false;
 		}
+		if (done)
+			connected();
+		return done;
+	}
+	
+	// the connection attempt failed, retried after the backoff
+	protected void connectFailed(Exception exc) {
+		LightLog.w(DEBUG_TAG, "Cannot connect: " + exc);
+		disconnect();
+	}
+	
+	// the connection is established
+	protected void connected() {
+		connected = true;
+		served = false;
+		alivetime = LightClock.millis();
+		onConnect();
+	}
+	
+	// closes the transport and schedules a new connection attempt
+	protected void close() {
+		transport.close();
+		opened = false;
 		
-		return ok;
+		/* first retry is immediate, unless the connection has not served any reply or has
+		 * been short lived: the gateway may accept and close, e.g. when it has another client
+		 */
+		final long now = LightClock.millis();
+		if (connected && served && (now - contime)/1000 >= STABLE_SECS)
+			retrytime = now;
+		else
+			retrytime = now + backoff.nextDelay();
+		connected = false;
 	}
 	
 	protected void disconnect() {
-		if (isConnected()) {
-			try { sock.close(); sock=null; } catch (IOException e) {}
+		if (connected) {
+			close();
 			onDisconnect();
+		} else
+			close();
+		
+		// pending replies are lost, their changes will be sent again
+		for (int i=0; i<inflight.length; i++) {
+			if (incmds[i] != null) {
+				stats.count(incmds[i].type, LightStats.Counters.FAILED);
+				desired.retry(incmds[i]);
+			}
+			inflight[i] = null;
+			incmds[i] = null;
 		}
+		inhead = incount = unwritten = 0;
+		powerinflight = lookinflight = 0;
+		
+		// the gateway or the bulb may restart meanwhile, nothing can be assumed about them
+		ackedon = senton = -1;
+		acked.mode = null;
+		copyLook(acked, sent);
+		wbuf.clear();
+		decoder.reset();
+		color_r = LightReplyDecoder.INVALID_COLOR;
 	}
 	
 	// called internally on connection
 	private void onConnect() {
-		Log.d(DEBUG_TAG, "Gateway connection opened");
+		LightLog.d(DEBUG_TAG, "Gateway connection opened");
 		
 		// Notify connection
-		if (activity != null) {
-			activity.runOnUiThread(new Runnable() {
+		final Executor d = dispatcher;
+		if (d != null) {
+			d.execute(new Runnable() {
 				@Override
 				public void run() {
-					receiver.onConnect();
+					final onLightStateReceiver r = receiver;
+					if (r != null)
+						r.onConnect();
 				}
 			});
 		}
@@ -123,167 +269,480 @@ public class LightExecutor implements Runnable {
 	
 	// called internally on disconnection
 	private void onDisconnect() {
-		Log.d(DEBUG_TAG, "Gateway connection closed");
+		LightLog.d(DEBUG_TAG, "Gateway connection closed");
 		
 		// Notify disconnection
-		if (activity != null) {
-			activity.runOnUiThread(new Runnable() {
+		final Executor d = dispatcher;
+		if (d != null) {
+			d.execute(new Runnable() {
 				@Override
 				public void run() {
-					receiver.onDisconnect();
+					final onLightStateReceiver r = receiver;
+					if (r != null)
+						r.onDisconnect();
 				}
 			});
 		}
 	}
 	
 	// parse state response and notify 
-	protected void parse_state(String scolor, String sison) { 
+	protected void parse_state(int color, int ison) { 
 		LightState state = new LightState();
 		
 		// fill color
-		try {
-			state.color = Color.parseColor("#"+scolor.substring(2, 8));
-		} catch (IllegalArgumentException | IndexOutOfBoundsException exc) {
-			Log.e(DEBUG_TAG, "Cannot decode rgb color '" + scolor);
+		if (color == LightReplyDecoder.INVALID_COLOR) {
+			LightLog.e(DEBUG_TAG, "Cannot decode rgb color");
 			return;
 		}
+		state.color = color;
 		
 		// fill ison
-		if (sison.equals("on"))
-			state.ison = true;
-		else if (sison.equals("off"))
-			state.ison = false;
-		else {
-			Log.e(DEBUG_TAG, "Cannot decode on/off state '" + sison + "'");
+		if (ison < 0) {
+			LightLog.e(DEBUG_TAG, "Cannot decode on/off state '" + decoder.frameString() + "'");
 			return;
 		}
+		state.ison = (ison == 1);
 		
-		// Notify result
-		if (activity != null) {
+		ackedon = ison;
+		if (powerinflight == 0)
+			senton = ackedon;
+		notifyState(state);
+	}
+	
+	// notify the state to the receiver
+	protected void notifyState(LightState state) {
+		laststate = state;
+		
+		final Executor d = dispatcher;
+		if (d != null) {
 			final LightState fstate = state;
-			activity.runOnUiThread(new Runnable() {
+			d.execute(new Runnable() {
 				@Override
 				public void run() {
-					receiver.onInitState(fstate);
+					final onLightStateReceiver r = receiver;
+					if (r != null)
+						r.onInitState(fstate);
 				}
 			});
 		}
 	}
 	
-	// buffer logic inside
-	protected String getReply() throws IOException {
-		String reply = "";
-		final int maxiter = 10;
-		int i=0;
-		int c;
+	// reads the available data and handles the received replies
+	protected void read() throws IOException {
+		if (transport.read(decoder.buffer()) < 0) {
+			disconnect();
+			return;
+		}
+		
+		while (connected && decoder.nextFrame())
+			receive();
+		
+		if (connected && decoder.isFull()) {
+			// replies are matched by order, we cannot go on
+			LightLog.w(DEBUG_TAG, "Reply too long :/");
+			disconnect();
+		}
+	}
+	
+	protected void send(ByteBuffer frame, String req) {
+		send(frame, req, null);
+	}
+	
+	/* appends an encoded request to the write buffer and req to the inflight ring.
+	 * req is the request path, used to match the reply. cmd is the originating command, if any,
+	 * it is copied into the slot.
+	 */
+	protected void send(ByteBuffer frame, String req, LightCommand cmd) {
+		final int k = (inhead + incount) % inflight.length;
 		
-		do {
-			c = sock.read(rbuf);
-			rbuf.flip();		// make the buffer ready for reading
-			if (c > 0) {
-				reply += decoder.decode(rbuf);
-			} else if (c < 0) {
-				disconnect();
-				return null;
-			}
-			i++;
-		} while (!reply.contains(SRVRPL_END) && i <= maxiter);
+		if (cmd != null) {
+			final LightCommand slot = inslots[k][cmd.type.ordinal()];
+			slot.set(cmd);
+			cmd = slot;
+		}
+		
+		wbuf.put(frame);
+		inflight[k] = req;
+		incmds[k] = cmd;
+		insent[k] = LightClock.millis();
+		incount++;
+		unwritten++;
 		
-		if (i > maxiter) {
-			Log.w(DEBUG_TAG, "Cannot get a reply :/");
-			return null;
+		if (cmd != null)
+			track(cmd);
+	}
+	
+	static void copyLook(LightState from, LightState to) {
+		to.mode = from.mode;
+		to.color = from.color;
+		to.brightness = from.brightness;
+	}
+	
+	// sets the look fields as after cmd
+	static void applyLook(LightCommand cmd, LightState state) {
+		switch (cmd.type) {
+			case SET_COLOR:
+				state.mode = Modes.MODE_COLOR;
+				state.color = ((ColorCommand) cmd).color;
+				break;
+			case SET_WARM:
+				state.mode = Modes.MODE_WARM;
+				state.brightness = ((WarmCommand) cmd).brightness;
+				break;
+			case SET_MODE:
+				state.mode = ((ModeCommand) cmd).mode;
+				break;
+			case SET_EFFECT:
+				state.mode = Modes.MODE_EFFECT;
+				break;
+			default:
+				break;
 		}
-		reply = reply.substring(0, reply.indexOf(SRVRPL_END));
-		if (reply.equals(SRVRPL_BAD) || reply.equals(SRVRPL_OFFLINE))
-			return null;
-		return reply;
 	}
 	
-	protected String request(String req) {
-		try {
-			sock.write(encoder.encode(CharBuffer.wrap(req+SRVRPL_END)));
-			return getReply();
-		} catch (IOException exc) {
-			Log.w(DEBUG_TAG, "Cannot write request: " + exc.getMessage());
-			disconnect();
+	// saves the acknowledged state, once fully known
+	protected void saveAcked() {
+		if (store == null || ackedon < 0 || acked.mode == null)
+			return;
+		
+		saving.ison = (ackedon == 1);
+		copyLook(acked, saving);
+		store.save(saving);
+	}
+	
+	// a change has been sent, the gateway is going to have its value
+	protected void track(LightCommand cmd) {
+		if (cmd.type == Types.SET_ONOFF) {
+			senton = ((OnOffCommand) cmd).on ? 1 : 0;
+			powerinflight++;
+		} else if (cmd.type != Types.QUERY_STATE) {
+			applyLook(cmd, sent);
+			lookinflight++;
 		}
-		return null;
 	}
-
-	@Override
-	public void run() {
-		LightCommand cmd;
+	
+	// the reply to a change has been received. On error, the sent value is rolled back
+	protected void settle(LightCommand cmd, boolean ok) {
+		if (cmd.type == Types.SET_ONOFF) {
+			powerinflight--;
+			if (ok)
+				ackedon = ((OnOffCommand) cmd).on ? 1 : 0;
+			if (powerinflight == 0)
+				senton = ackedon;
+		} else if (cmd.type != Types.QUERY_STATE) {
+			lookinflight--;
+			if (ok)
+				applyLook(cmd, acked);
+			if (lookinflight == 0)
+				copyLook(acked, sent);
+		}
 		
-		while (dorun) {
-			if (! isConnected())
-				if (! connect())
-					try { Thread.sleep(CONRETRY_TIMEOUT); } catch (InterruptedException exc) {}
-			
-			if (isConnected())
-				cmd = queue.fetchNext();
-			else
-				cmd = null;
+		if (ok)
+			saveAcked();
+	}
+	
+	// a full state has been received. Replies are in order, so inflight changes come after it
+	protected void stateReceived(LightState state) {
+		ackedon = state.ison ? 1 : 0;
+		copyLook(state, acked);
+		if (powerinflight == 0)
+			senton = ackedon;
+		if (lookinflight == 0)
+			copyLook(acked, sent);
+		saveAcked();
+	}
+	
+	// writes as much buffered data as possible, then waits for the channel to be writable
+	protected void flush() throws IOException {
+		wbuf.flip();
+		transport.write(wbuf);
+		wbuf.compact();
+		
+		if (wbuf.position() > 0) {
+			transport.setWriteInterest(true);
+		} else {
+			transport.setWriteInterest(false);
 			
-			if (cmd != null) {
-				Log.d(DEBUG_TAG, "Processing command: " + cmd.type);
-				// alive timer is reset
-				alivetime = LightCommandQueue.getTimestamp();
+			if (unwritten > 0) {
+				final long now = LightStats.now();
 				
-				switch (cmd.type) {
-					case SET_COLOR:
-						ColorCommand color = (ColorCommand) cmd;
-						request(SRVCMD_RGBW + color.toString());
-						break;
-					case SET_ONOFF:
-						OnOffCommand onoff = (OnOffCommand) cmd;
-						if (onoff.on)
-							request(SRVCMD_ON);
-						else
-							request(SRVCMD_OFF);
-						break;
-					case SET_WARM:
-						WarmCommand warm = (WarmCommand) cmd;
-						request(SRVCMD_WARM + warm.brightness);
-						break;
-					case SET_MODE:
-						ModeCommand modecmd = (ModeCommand) cmd;
-						switch (modecmd.mode) {
-						case MODE_COOL:
-							request(SRVCMD_MODECOOL);
-							break;
-						case MODE_DISCO:
-							request(SRVCMD_MODEDISCO);
-							break;
-						case MODE_SOFT:
-							request(SRVCMD_MODESOFT);
-							break;
-						}
-						break;
-					case QUERY_STATE:
-						String color_r = request(SRVQRY_COLOR);
-						String ison_r = request(SRVQRY_STATE);
-						if (color_r == null || ison_r == null)
-							break;
-						parse_state(color_r, ison_r);
-						break;
+				for (int i=incount-unwritten; i<incount; i++) {
+					LightCommand cmd = incmds[(inhead + i) % incmds.length];
+					if (cmd != null)
+						stats.written(cmd, now);
 				}
+				unwritten = 0;
+			}
+		}
+	}
+	
+	// handles the reply of the oldest inflight request, which is into the decoder
+	protected void receive() {
+		if (incount == 0) {
+			// replies are matched by order, after an unsolicited one they cannot be trusted
+			LightLog.w(DEBUG_TAG, "Unexpected reply '" + decoder.frameString() + "'");
+			disconnect();
+			return;
+		}
+		
+		String req = inflight[inhead];
+		LightCommand cmd = incmds[inhead];
+		inflight[inhead] = null;
+		incmds[inhead] = null;
+		inhead = (inhead + 1) % inflight.length;
+		incount--;
+		unwritten = Math.min(unwritten, incount);
+		
+		// the gateway is serving us, the connection is good
+		if (! served) {
+			served = true;
+			backoff.reset();
+		}
+		
+		final boolean ok = ! decoder.isError();
+		if (! ok)
+			LightLog.w(DEBUG_TAG, "Request '" + req + "' failed: " + decoder.frameString());
+		
+		if (cmd != null) {
+			if (ok) {
+				stats.acked(cmd, LightStats.now());
 			} else {
-				// Check if we need to send keep alive
-				long curtime = LightCommandQueue.getTimestamp();
-				if (isConnected() && 
-						(curtime - alivetime)/1000 >= KEEP_ALIVE_SECS) {
-					request(SRVCMD_KEEPALIVE);
-					alivetime = curtime;
-				}
+				stats.count(cmd.type, LightStats.Counters.FAILED);
+				
+				// sent again once the bulb is back, a bad request is not
+				if (decoder.isOffline())
+					desired.retry(cmd, LightClock.millis() + retrybackoff.nextDelay());
 			}
+			settle(cmd, ok);
+		}
+		onReply(req, ok);
+	}
+	
+	// called when a reply is received, the reply frame is into the decoder
+	protected void onReply(String req, boolean ok) {
+		if (req == SRVQRY_FULLSTATE) {
+			LightState state = new LightState();
 			
-			try { Thread.sleep(SLEEP_MILLI); } catch (InterruptedException exc) {}
+			if (ok && decoder.parseState(state)) {
+				// the gateway keeps commands pending while the bulb is offline, only queries tell it is back
+				retrybackoff.reset();
+				stateReceived(state);
+				notifyState(state);
+			} else if (decoder.isOffline()) {
+				LightLog.d(DEBUG_TAG, "Bulb offline, state query retried later");
+			} else {
+				// older gateways do not support this, fallback to the separate queries
+				LightLog.w(DEBUG_TAG, "Cannot decode state '" + decoder.frameString() + "'");
+				send(encoder.encode(LightCommandEncoder.QRY_COLOR), SRVQRY_COLOR);
+				send(encoder.encode(LightCommandEncoder.QRY_STATE), SRVQRY_STATE);
+			}
+		} else if (req == SRVQRY_COLOR) {
+			color_r = ok ? decoder.parseColor() : LightReplyDecoder.INVALID_COLOR;
+		} else if (req == SRVQRY_STATE) {
+			// the color query is always sent before this one
+			if (ok && color_r != LightReplyDecoder.INVALID_COLOR)
+				parse_state(color_r, decoder.parseOnOff());
+			color_r = LightReplyDecoder.INVALID_COLOR;
 		}
+	}
+	
+	// pipelined requests with at most depth requests waiting a reply. 1 disables pipelining
+	public void setPipelineDepth(int depth) {
+		this.depth = Math.max(1, Math.min(depth, MAX_PIPELINE_DEPTH));
+	}
+	
+	protected void process(LightCommand cmd) {
+		if (LightLog.isLoggable(DEBUG_TAG, LightLog.DEBUG))
+			LightLog.d(DEBUG_TAG, "Processing command: " + cmd.type);
 		
-		disconnect();
+		switch (cmd.type) {
+			case SET_COLOR:
+				ColorCommand color = (ColorCommand) cmd;
+				send(encoder.encodeColor(color.color), SRVCMD_RGBW, cmd);
+				break;
+			case SET_ONOFF:
+				OnOffCommand onoff = (OnOffCommand) cmd;
+				if (onoff.on)
+					send(encoder.encode(LightCommandEncoder.ON), SRVCMD_ON, cmd);
+				else
+					send(encoder.encode(LightCommandEncoder.OFF), SRVCMD_OFF, cmd);
+				break;
+			case SET_WARM:
+				WarmCommand warm = (WarmCommand) cmd;
+				send(encoder.encodeWarm(warm.brightness), SRVCMD_WARM, cmd);
+				break;
+			case SET_MODE:
+				ModeCommand modecmd = (ModeCommand) cmd;
+				switch (modecmd.mode) {
+				case MODE_COOL:
+					send(encoder.encode(LightCommandEncoder.MODECOOL), SRVCMD_MODECOOL, cmd);
+					break;
+				case MODE_DISCO:
+					send(encoder.encode(LightCommandEncoder.MODEDISCO), SRVCMD_MODEDISCO, cmd);
+					break;
+				case MODE_SOFT:
+					send(encoder.encode(LightCommandEncoder.MODESOFT), SRVCMD_MODESOFT, cmd);
+					break;
+				}
+				break;
+			case SET_EFFECT:
+				EffectCommand effect = (EffectCommand) cmd;
+				send(encoder.encodeEffect(effect.effect), SRVCMD_EFFECT, cmd);
+				break;
+			case QUERY_STATE:
+				// single round trip, see onReply
+				send(encoder.encode(LightCommandEncoder.QRY_FULLSTATE), SRVQRY_FULLSTATE, cmd);
+				break;
+		}
+	}
+
+	// sends the changes needed to reach the desired state while the pipeline has room
+	protected void pump() {
+		LightCommand cmd;
+		
+		// fades are paced by the acknowledgements
+		if (transition != null && lookinflight == 0)
+			transition.step(LightClock.millis(), sent);
+		
+		// a query fallback takes two slots
+		while (incount < depth && wbuf.remaining() >= 2 * LightCommandEncoder.MAX_REQUEST_LEN
+				&& (cmd = desired.fetchChange(senton, sent)) != null) {
+			// alive timer is reset
+			alivetime = LightClock.millis();
+			stats.dequeued(cmd, LightStats.now());
+			process(cmd);
+		}
+	}
+	
+	// called by the engine on each loop, runs timers and pending changes
+	protected void tick(long now) {
+		if (! dorun) {
+			if (! finished) {
+				disconnect();
+				if (store != null)
+					store.close();
+				finished = true;
+			}
+			return;
+		}
+		
+		if (nexttransport != null)
+			switchTransport(now);
+		
+		if (doreconnect) {
+			// the connection may be bound to the old network, and never report an error
+			doreconnect = false;
+			if (opened) {
+				LightLog.d(DEBUG_TAG, "Network changed, reconnecting");
+				disconnect();
+			}
+			backoff.reset();
+			retrytime = now;
+		}
+		
+		if (! opened) {
+			if (now >= retrytime)
+				connect();
+			if (! connected)
+				return;
+		} else if (! connected && ! finishConnect()) {
+			if (opened && (now - contime)/1000 >= CONNECT_TIMEOUT_SECS) {
+				LightLog.w(DEBUG_TAG, "Connection timeout");
+				disconnect();
+			}
+			return;
+		}
+		
+		// a dead socket may not report any error for minutes
+		if (incount > 0 && (now - insent[inhead])/1000 >= REPLY_TIMEOUT_SECS) {
+			LightLog.w(DEBUG_TAG, "Reply timeout");
+			disconnect();
+			return;
+		}
+		
+		pump();
+		
+		// Check if we need to send keep alive
+		if (incount == 0 && (now - alivetime)/1000 >= KEEP_ALIVE_SECS) {
+			send(encoder.encode(LightCommandEncoder.KEEPALIVE), SRVCMD_KEEPALIVE);
+			alivetime = now;
+		}
+		
+		try {
+			flush();
+		} catch (IOException exc) {
+			LightLog.w(DEBUG_TAG, "Cannot write request: " + exc.getMessage());
+			disconnect();
+		}
+	}
+	
+	// next time the engine must call tick, Long.MAX_VALUE if none
+	protected long nextDeadline() {
+		if (! opened)
+			return retrytime;
+		else if (! connected)
+			return contime + CONNECT_TIMEOUT_SECS*1000;
+		
+		long deadline = desired.nextRetry();
+		if (incount == 0)
+			deadline = Math.min(deadline, alivetime + KEEP_ALIVE_SECS*1000);
+		else
+			deadline = Math.min(deadline, insent[inhead] + REPLY_TIMEOUT_SECS*1000);
+		if (transition != null && transition.isActive() && lookinflight == 0)
+			deadline = Math.min(deadline, transition.nextFrame());
+		return deadline;
+	}
+	
+	// called by the engine after a failure: closed as by end, without running anything else
+	protected void abort() {
+		dorun = false;
+		finished = true;
+		try {
+			disconnect();
+		} catch (RuntimeException exc) {
+			transport.close();
+		}
+		if (store != null)
+			store.close();
+	}
+	
+	protected boolean isFinished() {
+		return finished;
+	}
+	
+	// called by the engine when the channel is ready
+	protected void handle(SelectionKey key) {
+		try {
+			if (key.isConnectable()) {
+				if (! finishConnect())
+					return;
+			} else if (key.isReadable())
+				read();
+			
+			if (connected) {
+				// replies make room into the pipeline
+				pump();
+				flush();
+			}
+		} catch (IOException exc) {
+			LightLog.w(DEBUG_TAG, "Connection error: " + exc.getMessage());
+			disconnect();
+		}
+	}
+	
+	@Override
+	public void onDesiredChanged() {
+		engine.wakeup();
+	}
+	
+	// reconnects at once, dropping the current connection, e.g. after a network change
+	public void reconnect() {
+		doreconnect = true;
+		engine.wakeup();
 	}
 	
 	public void end() {
 		dorun = false;
+		engine.wakeup();
 	}
-}
\ No newline at end of file
+}
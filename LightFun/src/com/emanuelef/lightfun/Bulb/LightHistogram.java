@@ -0,0 +1,89 @@
+package com.emanuelef.lightfun.Bulb;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/*
+ * Lock-free latency histogram with fixed log-linear buckets (HdrHistogram-like).
+ * Values below LINEAR_LIMIT have their own bucket, bigger values are grouped into
+ * SUB_BUCKETS buckets per power of two, i.e. about 12% precision.
+ * Recording does not allocate.
+ */
+public class LightHistogram {
+	static final int SUB_BITS = 3;
+	static final int SUB_BUCKETS = 1 << SUB_BITS;
+	static final int LINEAR_LIMIT = 2 * SUB_BUCKETS;
+	static final int LINEAR_BITS = 4;		// log2(LINEAR_LIMIT)
+	static final int NUM_BUCKETS = LINEAR_LIMIT + (64 - LINEAR_BITS) * SUB_BUCKETS;
+
+	final AtomicLongArray counts = new AtomicLongArray(NUM_BUCKETS);
+
+	static int bucketOf(long value) {
+		if (value < LINEAR_LIMIT)
+			return (int) Math.max(value, 0);
+
+		final int exp = 63 - Long.numberOfLeadingZeros(value);
+		final int sub = (int) (value >>> (exp - SUB_BITS)) & (SUB_BUCKETS - 1);
+		return LINEAR_LIMIT + (exp - LINEAR_BITS) * SUB_BUCKETS + sub;
+	}
+
+	// lowest value which falls into bucket
+	static long valueOf(int bucket) {
+		if (bucket < LINEAR_LIMIT)
+			return bucket;
+
+		final int exp = (bucket - LINEAR_LIMIT) / SUB_BUCKETS + LINEAR_BITS;
+		final long sub = (bucket - LINEAR_LIMIT) % SUB_BUCKETS;
+		return (SUB_BUCKETS | sub) << (exp - SUB_BITS);
+	}
+
+	public void record(long value) {
+		counts.incrementAndGet(bucketOf(value));
+	}
+
+	public Snapshot snapshot() {
+		final long[] copy = new long[NUM_BUCKETS];
+
+		for (int i=0; i<NUM_BUCKETS; i++)
+			copy[i] = counts.get(i);
+		return new Snapshot(copy);
+	}
+
+	public static class Snapshot {
+		final long[] counts;
+		final long total;
+
+		Snapshot(long[] counts) {
+			long total = 0;
+
+			for (int i=0; i<counts.length; i++)
+				total += counts[i];
+			this.counts = counts;
+			this.total = total;
+		}
+
+		public long getCount() {
+			return total;
+		}
+
+		// Value at the given percentile (0-100), 0 if empty
+		public long getPercentile(double percentile) {
+			final long rank = (long) Math.ceil(percentile / 100. * total);
+			long seen = 0;
+
+			for (int i=0; i<counts.length; i++) {
+				seen += counts[i];
+				if (seen > 0 && seen >= rank)
+					return valueOf(i);
+			}
+			return 0;
+		}
+
+		public long getMax() {
+			for (int i=counts.length-1; i>=0; i--) {
+				if (counts[i] > 0)
+					return valueOf(i);
+			}
+			return 0;
+		}
+	}
+}
@@ -0,0 +1,65 @@
+package com.emanuelef.lightfun.Bulb;
+
+/*
+ * Logging of the Bulb package, same levels of android.util.Log, so that it runs on a plain
+ * JVM. The app installs a sink writing to the Android log; until then warnings and errors
+ * go to stderr.
+ */
+public class LightLog {
+	public static final int DEBUG = 3;
+	public static final int WARN = 5;
+	public static final int ERROR = 6;
+
+	// as with android.util.Log, isLoggable only guards costly messages, log gets them all
+	public interface Sink {
+		boolean isLoggable(String tag, int level);
+		void log(int level, String tag, String msg, Throwable exc);
+	}
+
+	static final Sink STDERR = new Sink() {
+		@Override
+		public boolean isLoggable(String tag, int level) {
+			return level >= WARN;
+		}
+
+		@Override
+		public void log(int level, String tag, String msg, Throwable exc) {
+			if (level < WARN)
+				return;
+			System.err.println(tag + ": " + msg);
+			if (exc != null)
+				exc.printStackTrace();
+		}
+	};
+
+	private static volatile Sink sink = STDERR;
+
+	// null restores the default sink
+	public static void setSink(Sink sink) {
+		LightLog.sink = (sink != null) ? sink : STDERR;
+	}
+
+	public static boolean isLoggable(String tag, int level) {
+		return sink.isLoggable(tag, level);
+	}
+
+	private static void log(int level, String tag, String msg, Throwable exc) {
+		sink.log(level, tag, msg, exc);
+	}
+
+	public static void d(String tag, String msg) {
+		log(DEBUG, tag, msg, null);
+	}
+
+	public static void w(String tag, String msg) {
+		log(WARN, tag, msg, null);
+	}
+
+	public static void e(String tag, String msg) {
+		log(ERROR, tag, msg, null);
+	}
+
+	public static void e(String tag, String msg, Throwable exc) {
+		log(ERROR, tag, msg, exc);
+	}
+}
@@ -0,0 +1,73 @@
+package com.emanuelef.lightfun.Bulb;
+
+/*
+ * Maps colors and warm levels to the resolution of the bulb.
+ * The gateway scales each value to 0-99 (see controller_v2.js syncToLumen), so many 8 bit
+ * colors end up being the same device color. Quantized values are the smallest ones
+ * falling into their device level, so that they are stable when sent back and forth.
+ */
+public class LightQuantizer {
+	static final int DEVICE_MAX = 99;		// device levels are 0-99
+	static final int WARM_MAX = 100;		// protocol warm levels are 0-100
+
+	// device level of an 8 bit channel
+	static int channelLevel(int value) {
+		return value * DEVICE_MAX / 255;
+	}
+
+	// smallest 8 bit channel value with the given device level
+	static int levelChannel(int level) {
+		return (level * 255 + DEVICE_MAX - 1) / DEVICE_MAX;
+	}
+
+	public static int quantizeChannel(int value) {
+		return levelChannel(channelLevel(value));
+	}
+
+	// alpha is set to opaque
+	public static int quantizeColor(int color) {
+		return LightColor.rgb(quantizeChannel(LightColor.red(color)),
+				quantizeChannel(LightColor.green(color)),
+				quantizeChannel(LightColor.blue(color)));
+	}
+
+	// 0-100 brightness
+	public static int quantizeWarm(int brightness) {
+		final int level = Math.max(0, Math.min(brightness, WARM_MAX)) * DEVICE_MAX / WARM_MAX;
+		return (level * WARM_MAX + DEVICE_MAX - 1) / DEVICE_MAX;
+	}
+
+	// sRGB channel to linear
+	private static double linear(int value) {
+		final double c = value / 255.;
+		return (c <= 0.04045) ? c / 12.92 : Math.pow((c + 0.055) / 1.055, 2.4);
+	}
+
+	// CIE Lab f(t)
+	private static double labf(double t) {
+		return (t > 216. / 24389.) ? Math.cbrt(t) : (24389. / 27. * t + 16.) / 116.;
+	}
+
+	/* CIE76 color difference between two colors, D65 white.
+	 * About 2.3 is the smallest difference the eye can notice.
+	 */
+	public static double deltaE(int a, int b) {
+		if (((a ^ b) & 0xffffff) == 0)
+			return 0;
+
+		final double ra = linear(LightColor.red(a)), ga = linear(LightColor.green(a)), ba = linear(LightColor.blue(a));
+		final double rb = linear(LightColor.red(b)), gb = linear(LightColor.green(b)), bb = linear(LightColor.blue(b));
+
+		final double xa = labf((0.4124 * ra + 0.3576 * ga + 0.1805 * ba) / 0.95047);
+		final double ya = labf(0.2126 * ra + 0.7152 * ga + 0.0722 * ba);
+		final double za = labf((0.0193 * ra + 0.1192 * ga + 0.9505 * ba) / 1.08883);
+		final double xb = labf((0.4124 * rb + 0.3576 * gb + 0.1805 * bb) / 0.95047);
+		final double yb = labf(0.2126 * rb + 0.7152 * gb + 0.0722 * bb);
+		final double zb = labf((0.0193 * rb + 0.1192 * gb + 0.9505 * bb) / 1.08883);
+
+		final double dl = 116. * (ya - yb);
+		final double da = 500. * ((xa - ya) - (xb - yb));
+		final double db = 200. * ((ya - za) - (yb - zb));
+		return Math.sqrt(dl * dl + da * da + db * db);
+	}
+}
@@ -0,0 +1,220 @@
+package com.emanuelef.lightfun.Bulb;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+import com.emanuelef.lightfun.Bulb.LightCommands.Modes;
+import com.emanuelef.lightfun.Bulb.LightController.LightState;
+
+/*
+ * Incremental decoder for the gateway replies.
+ * Data is read into buffer(), then nextFrame() is called until it returns false.
+ * Frames are scanned in place: a partial frame is kept for the next read, and
+ * more frames received together are returned one at a time.
+ * The current frame is only valid until the next call to nextFrame().
+ */
+public class LightReplyDecoder {
+	static final int BUFFER_SIZE = 256;
+	public static final int INVALID_COLOR = 0;		// decoded colors always have alpha set
+
+	private static final Charset ASCII = Charset.forName("US-ASCII");
+	private static final byte END = LightExecutor.SRVRPL_END.getBytes(ASCII)[0];
+	private static final byte[] BAD = LightExecutor.SRVRPL_BAD.getBytes(ASCII);
+	private static final byte[] OFFLINE = LightExecutor.SRVRPL_OFFLINE.getBytes(ASCII);
+	private static final byte[] ON = LightExecutor.SRVRPL_ON.getBytes(ASCII);
+	private static final byte[] OFF = LightExecutor.SRVRPL_OFF.getBytes(ASCII);
+	private static final byte SEP = LightExecutor.SRVRPL_SEP.getBytes(ASCII)[0];
+
+	// indexed by Modes ordinal. values() copies its array, it is called once
+	private static final Modes[] MODE_VALUES = Modes.values();
+	private static final byte[][] MODES = new byte[MODE_VALUES.length][];
+	static {
+		MODES[Modes.MODE_DISCO.ordinal()] = LightExecutor.SRVRPL_MODE_DISCO.getBytes(ASCII);
+		MODES[Modes.MODE_COOL.ordinal()] = LightExecutor.SRVRPL_MODE_COOL.getBytes(ASCII);
+		MODES[Modes.MODE_SOFT.ordinal()] = LightExecutor.SRVRPL_MODE_SOFT.getBytes(ASCII);
+		MODES[Modes.MODE_COLOR.ordinal()] = LightExecutor.SRVRPL_MODE_COLOR.getBytes(ASCII);
+		MODES[Modes.MODE_WARM.ordinal()] = LightExecutor.SRVRPL_MODE_WARM.getBytes(ASCII);
+		MODES[Modes.MODE_EFFECT.ordinal()] = LightExecutor.SRVRPL_MODE_EFFECT.getBytes(ASCII);
+	}
+
+	private final ByteBuffer rbuf = ByteBuffer.allocate(BUFFER_SIZE);
+	private final byte[] data = rbuf.array();
+	private int rpos = 0;		// start of unconsumed data
+	private int scan = 0;		// next byte to scan for END
+	private int fstart = 0;
+	private int flen = 0;
+
+	// the buffer to read data into
+	public ByteBuffer buffer() {
+		return rbuf;
+	}
+
+	// true if no more data can be read and there is no complete frame
+	public boolean isFull() {
+		return !rbuf.hasRemaining();
+	}
+
+	public void reset() {
+		rbuf.clear();
+		rpos = scan = 0;
+		fstart = flen = 0;
+	}
+
+	// Looks for the next complete frame. Returns false if more data is needed.
+	public boolean nextFrame() {
+		final int end = rbuf.position();
+
+		for (int i=scan; i<end; i++) {
+			if (data[i] == END) {
+				fstart = rpos;
+				flen = i - rpos;
+				rpos = scan = i + 1;
+				return true;
+			}
+		}
+
+		// keep the partial frame at buffer start
+		if (rpos > 0) {
+			System.arraycopy(data, rpos, data, 0, end - rpos);
+			rbuf.position(end - rpos);
+			rpos = 0;
+		}
+		scan = rbuf.position();
+		return false;
+	}
+
+	public boolean frameEquals(byte[] val) {
+		return rangeEquals(fstart, flen, val);
+	}
+
+	// true if the frame is an error reply
+	public boolean isError() {
+		return frameEquals(BAD) || frameEquals(OFFLINE);
+	}
+	
+	// true if the request failed since the bulb is unreachable, it can be retried later
+	public boolean isOffline() {
+		return frameEquals(OFFLINE);
+	}
+
+	// decodes a "0xRRGGBB" frame. Returns INVALID_COLOR on error
+	public int parseColor() {
+		return parseColor(fstart, flen);
+	}
+
+	// decodes an "on"/"off" frame. Returns 1, 0 or -1 on error
+	public int parseOnOff() {
+		return parseOnOff(fstart, flen);
+	}
+
+	/* decodes a "on|off,mode,0xRRGGBB,warm" frame into state.
+	 * Returns false on error.
+	 */
+	public boolean parseState(LightState state) {
+		final int end = fstart + flen;
+		int start = fstart;
+		int k;
+
+		// on/off
+		k = nextField(start, end);
+		final int ison = parseOnOff(start, k - start);
+		if (ison < 0 || k == end)
+			return false;
+		state.ison = (ison == 1);
+
+		// mode
+		start = k + 1;
+		k = nextField(start, end);
+		state.mode = null;
+		for (Modes mode: MODE_VALUES) {
+			if (rangeEquals(start, k - start, MODES[mode.ordinal()])) {
+				state.mode = mode;
+				break;
+			}
+		}
+		if (state.mode == null || k == end)
+			return false;
+
+		// color
+		start = k + 1;
+		k = nextField(start, end);
+		state.color = parseColor(start, k - start);
+		if (state.color == INVALID_COLOR || k == end)
+			return false;
+
+		// warm brightness
+		start = k + 1;
+		state.brightness = parseDecimal(start, end - start);
+		return state.brightness >= 0;
+	}
+
+	private int nextField(int start, int end) {
+		while (start < end && data[start] != SEP)
+			start++;
+		return start;
+	}
+
+	private boolean rangeEquals(int start, int len, byte[] val) {
+		if (val.length != len)
+			return false;
+
+		for (int i=0; i<len; i++) {
+			if (data[start + i] != val[i])
+				return false;
+		}
+		return true;
+	}
+
+	private int parseColor(int start, int len) {
+		int rgb = 0;
+
+		if (len != 8 || data[start] != '0' || data[start+1] != 'x')
+			return INVALID_COLOR;
+
+		for (int i=2; i<8; i++) {
+			final int v = hexValue(data[start + i]);
+			if (v < 0)
+				return INVALID_COLOR;
+			rgb = (rgb << 4) | v;
+		}
+		return 0xff000000 | rgb;
+	}
+
+	private int parseOnOff(int start, int len) {
+		if (rangeEquals(start, len, ON))
+			return 1;
+		else if (rangeEquals(start, len, OFF))
+			return 0;
+		return -1;
+	}
+
+	// returns -1 on error
+	private int parseDecimal(int start, int len) {
+		int val = 0;
+
+		if (len == 0)
+			return -1;
+
+		for (int i=start; i<start+len; i++) {
+			if (data[i] < '0' || data[i] > '9')
+				return -1;
+			val = val * 10 + (data[i] - '0');
+		}
+		return val;
+	}
+
+	// for logging purposes
+	public String frameString() {
+		return new String(data, fstart, flen, ASCII);
+	}
+
+	private static int hexValue(byte c) {
+		if (c >= '0' && c <= '9')
+			return c - '0';
+		else if (c >= 'a' && c <= 'f')
+			return c - 'a' + 10;
+		else if (c >= 'A' && c <= 'F')
+			return c - 'A' + 10;
+		return -1;
+	}
+}
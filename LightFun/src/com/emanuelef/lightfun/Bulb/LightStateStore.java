@@ -0,0 +1,153 @@
+package com.emanuelef.lightfun.Bulb;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+
+import com.emanuelef.lightfun.Bulb.LightCommands.Modes;
+import com.emanuelef.lightfun.Bulb.LightController.LightState;
+
+/*
+ * The last state acknowledged by the gateway, kept on a file so that the UI can show it
+ * before connecting.
+ * Saves are written by a background thread. While a write is pending, newer saves replace
+ * its state, so a burst of acknowledgements costs a single write.
+ * File layout, big endian: magic (4), on (1), mode ordinal or -1 (1), brightness (1),
+ * padding (1), color (4).
+ */
+public class LightStateStore implements Runnable {
+	static final String DEBUG_TAG = "LightStateStore";
+	static final int MAGIC = 0x4c467331;		// "LFs1"
+	static final int SIZE = 12;
+
+	final File file;
+	final File tmpfile;
+	final ExecutorService writer;
+
+	// guarded by this
+	final LightState pending = new LightState();
+	boolean scheduled = false;
+	boolean closed = false;
+
+	// writer thread only
+	final LightState written = new LightState();
+	boolean haswritten = false;
+	final ByteBuffer buf = ByteBuffer.allocate(SIZE);
+
+	public LightStateStore(File file) {
+		this.file = file;
+		this.tmpfile = new File(file.getPath() + ".tmp");
+		writer = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "LightStateStore");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	static void copy(LightState from, LightState to) {
+		to.ison = from.ison;
+		to.color = from.color;
+		to.mode = from.mode;
+		to.brightness = from.brightness;
+	}
+
+	static boolean equals(LightState a, LightState b) {
+		return a.ison == b.ison && a.color == b.color && a.mode == b.mode && a.brightness == b.brightness;
+	}
+
+	// reads the saved state, null if none or unreadable. Blocking, the file is tiny
+	public LightState load() {
+		final byte[] data = new byte[SIZE];
+		FileInputStream in = null;
+
+		try {
+			in = new FileInputStream(file);
+			int n = 0, r;
+			while (n < SIZE && (r = in.read(data, n, SIZE - n)) > 0)
+				n += r;
+			if (n < SIZE)
+				return null;
+		} catch (IOException exc) {
+			return null;
+		} finally {
+			if (in != null)
+				try { in.close(); } catch (IOException e) {}
+		}
+
+		final ByteBuffer b = ByteBuffer.wrap(data);
+		final LightState state = new LightState();
+		final Modes[] modes = Modes.values();
+
+		if (b.getInt() != MAGIC)
+			return null;
+		state.ison = (b.get() != 0);
+		final int mode = b.get();
+		state.mode = (mode >= 0 && mode < modes.length) ? modes[mode] : null;
+		state.brightness = b.get();
+		b.get();
+		state.color = b.getInt();
+		return state;
+	}
+
+	// saves the state asynchronously, it is copied
+	public synchronized void save(LightState state) {
+		if (closed)
+			return;
+
+		copy(state, pending);
+		if (! scheduled) {
+			scheduled = true;
+			writer.execute(this);
+		}
+	}
+
+	// pending saves are still written
+	public synchronized void close() {
+		closed = true;
+		writer.shutdown();
+	}
+
+	@Override
+	public void run() {
+		synchronized (this) {
+			scheduled = false;
+			if (haswritten && equals(pending, written))
+				return;
+			copy(pending, written);
+		}
+		haswritten = true;
+
+		buf.clear();
+		buf.putInt(MAGIC);
+		buf.put((byte) (written.ison ? 1 : 0));
+		buf.put((byte) ((written.mode != null) ? written.mode.ordinal() : -1));
+		buf.put((byte) written.brightness);
+		buf.put((byte) 0);
+		buf.putInt(written.color);
+
+		// written aside then renamed, a crash never leaves a partial file
+		FileOutputStream out = null;
+		try {
+			out = new FileOutputStream(tmpfile);
+			out.write(buf.array(), 0, SIZE);
+			out.close();
+			out = null;
+			if (! tmpfile.renameTo(file))
+				LightLog.w(DEBUG_TAG, "Cannot rename " + tmpfile);
+		} catch (IOException exc) {
+			LightLog.w(DEBUG_TAG, "Cannot save state: " + exc.getMessage());
+		} finally {
+			if (out != null)
+				try { out.close(); } catch (IOException e) {}
+		}
+	}
+}
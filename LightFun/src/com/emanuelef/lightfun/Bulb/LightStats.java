@@ -0,0 +1,108 @@
+package com.emanuelef.lightfun.Bulb;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.emanuelef.lightfun.Bulb.LightCommands.LightCommand;
+import com.emanuelef.lightfun.Bulb.LightCommands.Types;
+
+/*
+ * Per command type latency histograms and counters.
+ * Latencies are in microseconds, measured from the last update of a command:
+ *  - QUEUE: until the executor dequeues it
+ *  - WIRE: until its request has been written to the socket
+ *  - ACK: until its reply has been received
+ * Counters: values overwritten before being sent (COALESCED, or DROPPED when replaced by
+ * another type), values not sent since the gateway already has them (UNCHANGED), changes
+ * not made by the user (ECHOED), requests which got an error or no reply (FAILED), and
+ * failed changes to be sent again (RETRIED).
+ * Recording is lock-free and does not allocate.
+ */
+public class LightStats {
+	public enum Stages { QUEUE, WIRE, ACK };
+	public enum Counters { COALESCED, DROPPED, UNCHANGED, ECHOED, FAILED, RETRIED };
+
+	static final int NUM_TYPES = Types.values().length;
+	static final int NUM_STAGES = Stages.values().length;
+	static final int NUM_COUNTERS = Counters.values().length;
+
+	final LightHistogram[] histograms = new LightHistogram[NUM_TYPES * NUM_STAGES];
+	final AtomicLongArray counters = new AtomicLongArray(NUM_TYPES * NUM_COUNTERS);
+	
+	// time the gateway takes to serve a request, EWMA of the ack intervals. Nanoseconds
+	long lastack = 0;
+	volatile long service = 0;
+
+	public LightStats() {
+		for (int i=0; i<histograms.length; i++)
+			histograms[i] = new LightHistogram();
+	}
+
+	public static long now() {
+		return LightClock.nanos();
+	}
+
+	void record(Types type, Stages stage, long since, long now) {
+		histograms[type.ordinal() * NUM_STAGES + stage.ordinal()].record((now - since) / 1000);
+	}
+
+	public void count(Types type, Counters counter) {
+		counters.incrementAndGet(type.ordinal() * NUM_COUNTERS + counter.ordinal());
+	}
+
+	public void dequeued(LightCommand cmd, long now) {
+		cmd.dequeued = now;
+		record(cmd.type, Stages.QUEUE, cmd.enqueued, now);
+	}
+
+	public void written(LightCommand cmd, long now) {
+		cmd.written = now;
+		record(cmd.type, Stages.WIRE, cmd.enqueued, now);
+	}
+
+	// called from a single thread
+	public void acked(LightCommand cmd, long now) {
+		record(cmd.type, Stages.ACK, cmd.enqueued, now);
+		
+		// back to back replies are spaced by the service time, otherwise it is the round trip
+		final long since = Math.max(cmd.written, lastack);
+		if (since > 0) {
+			final long sample = now - since;
+			service = (service == 0) ? sample : service + (sample - service) / 8;
+		}
+		lastack = now;
+	}
+	
+	// 0 until the first ack
+	public long getServiceTime() {
+		return service;
+	}
+
+	public Snapshot snapshot() {
+		LightHistogram.Snapshot[] hists = new LightHistogram.Snapshot[histograms.length];
+		long[] counts = new long[NUM_TYPES * NUM_COUNTERS];
+
+		for (int i=0; i<histograms.length; i++)
+			hists[i] = histograms[i].snapshot();
+		for (int i=0; i<counts.length; i++)
+			counts[i] = counters.get(i);
+		return new Snapshot(hists, counts);
+	}
+
+	public static class Snapshot {
+		final LightHistogram.Snapshot[] histograms;
+		final long[] counters;
+
+		Snapshot(LightHistogram.Snapshot[] histograms, long[] counters) {
+			this.histograms = histograms;
+			this.counters = counters;
+		}
+
+		public LightHistogram.Snapshot getHistogram(Types type, Stages stage) {
+			return histograms[type.ordinal() * NUM_STAGES + stage.ordinal()];
+		}
+
+		public long getCounter(Types type, Counters counter) {
+			return counters[type.ordinal() * NUM_COUNTERS + counter.ordinal()];
+		}
+	}
+}
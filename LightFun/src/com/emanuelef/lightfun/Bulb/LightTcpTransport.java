@@ -0,0 +1,136 @@
+package com.emanuelef.lightfun.Bulb;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/*
+ * Non blocking TCP connection to a real gateway.
+ * The host name is resolved on a background thread, a DNS lookup can take seconds and
+ * the engine thread serves all the controllers. It is resolved again on every open, so
+ * that a changed address is followed.
+ */
+public class LightTcpTransport implements LightTransport {
+	static final ExecutorService resolver = Executors.newCachedThreadPool(new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "LightResolver");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+
+	final String host;
+	final int port;
+	Selector selector = null;
+	Object attachment = null;
+	Future<InetAddress> address = null;		// pending resolution, null once connecting
+	SocketChannel sock = null;
+	SelectionKey key = null;
+
+	public LightTcpTransport(String host, int port) {
+		this.host = host;
+		this.port = port;
+	}
+
+	// the connection is started by finishConnect, when the address is known
+	@Override
+	public boolean open(final Selector selector, Object attachment) throws IOException {
+		this.selector = selector;
+		this.attachment = attachment;
+		address = resolver.submit(new Callable<InetAddress>() {
+			@Override
+			public InetAddress call() throws UnknownHostException {
+				try {
+					return InetAddress.getByName(host);
+				} finally {
+					// the engine calls finishConnect on its next loop
+					selector.wakeup();
+				}
+			}
+		});
+		return false;
+	}
+
+	@Override
+	public boolean finishConnect() throws IOException {
+		if (address != null) {
+			if (! address.isDone())
+				return false;
+
+			final InetAddress resolved;
+			try {
+				resolved = address.get();
+			} catch (ExecutionException exc) {
+				throw new IOException("Cannot resolve " + host + ": " + exc.getCause().getMessage());
+			} catch (InterruptedException exc) {
+				throw new IOException("Interrupted resolving " + host);
+			}
+			address = null;
+			return connect(new InetSocketAddress(resolved, port));
+		}
+
+		if (sock == null)
+			return false;
+		if (sock.finishConnect()) {
+			key.interestOps(SelectionKey.OP_READ);
+			return true;
+		}
+		return false;
+	}
+
+	private boolean connect(InetSocketAddress addr) throws IOException {
+		sock = SocketChannel.open();
+		sock.configureBlocking(false);
+		sock.socket().setTcpNoDelay(true);
+		key = sock.register(selector, SelectionKey.OP_CONNECT, attachment);
+
+		if (sock.connect(addr)) {
+			key.interestOps(SelectionKey.OP_READ);
+			return true;
+		}
+		return false;
+	}
+
+	@Override
+	public int read(ByteBuffer dst) throws IOException {
+		return sock.read(dst);
+	}
+
+	@Override
+	public int write(ByteBuffer src) throws IOException {
+		return sock.write(src);
+	}
+
+	@Override
+	public void setWriteInterest(boolean on) {
+		if (on)
+			key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+		else
+			key.interestOps(SelectionKey.OP_READ);
+	}
+
+	@Override
+	public void close() {
+		if (address != null)
+			address.cancel(false);
+		if (key != null)
+			key.cancel();
+		if (sock != null)
+			try { sock.close(); } catch (IOException e) {}
+		address = null;
+		key = null;
+		sock = null;
+	}
+}
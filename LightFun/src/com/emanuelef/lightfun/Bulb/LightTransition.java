@@ -0,0 +1,101 @@
+package com.emanuelef.lightfun.Bulb;
+
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.emanuelef.lightfun.Bulb.LightCommands.Modes;
+import com.emanuelef.lightfun.Bulb.LightController.LightState;
+
+/*
+ * A color fade, turned into frames written to the desired state.
+ * Frames are not produced on a timer: the executor asks for one when the previous frame has
+ * been acknowledged, and gets the color due at that time. On a slow link the intermediate
+ * frames are skipped, the fade still ends on time and the pipeline never fills with stale
+ * colors.
+ * The fade starts from the color the gateway has been told when the first frame is taken,
+ * any other change of the look cancels it.
+ */
+public class LightTransition {
+	static final long MIN_FRAME_MILLIS = 30;		// same as controller_v2.js interpolation
+
+	Lock mutex = new ReentrantLock();
+	final LightDesiredState desired;
+
+	volatile boolean active = false;
+	boolean started = false;
+	int from;
+	int to;
+	long start;
+	long duration;
+	LightEasing easing;
+	volatile long nextframe = 0;
+
+	public LightTransition(LightDesiredState desired) {
+		this.desired = desired;
+	}
+
+	// easing must not be null, it would fail later on the engine thread
+	public void start(int color, long duration, LightEasing easing) {
+		if (easing == null)
+			throw new IllegalArgumentException("Null easing");
+
+		mutex.lock();
+		try {
+			this.to = color;
+			this.duration = duration;
+			this.easing = easing;
+			active = true;
+			started = false;
+			nextframe = 0;
+		} finally {
+			mutex.unlock();
+		}
+	}
+
+	// to be called before writing the look, so that a pending frame cannot overwrite it
+	public void cancel() {
+		mutex.lock();
+		try {
+			active = false;
+		} finally {
+			mutex.unlock();
+		}
+	}
+
+	public boolean isActive() {
+		return active;
+	}
+
+	// when the next frame is due, if active
+	public long nextFrame() {
+		return nextframe;
+	}
+
+	/* Called by the executor when no look change is inflight: writes the frame due at now.
+	 * sent is the state the gateway has been told.
+	 */
+	void step(long now, LightState sent) {
+		mutex.lock();
+		try {
+			if (! active || now < nextframe)
+				return;
+
+			if (! started) {
+				// a fade from another mode or an unknown color is a jump
+				from = (sent.mode == Modes.MODE_COLOR) ? sent.color : to;
+				start = now;
+				started = true;
+			}
+
+			final int p = easing.progress(now - start, duration);
+			if (p == LightEasing.ONE)
+				active = false;
+			nextframe = now + MIN_FRAME_MILLIS;
+
+			// frames the bulb cannot tell from the sent one are not sent, see fetchChange
+			desired.setColor(LightQuantizer.quantizeColor(LightEasing.interpolate(from, to, p)));
+		} finally {
+			mutex.unlock();
+		}
+	}
+}
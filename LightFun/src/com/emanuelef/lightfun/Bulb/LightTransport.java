@@ -0,0 +1,31 @@
+package com.emanuelef.lightfun.Bulb;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Selector;
+
+/*
+ * A byte stream to the gateway, driven by the LightEngine selector.
+ * The transport registers its channel with the given attachment, so that
+ * the engine can dispatch the ready events to the executor.
+ */
+public interface LightTransport {
+	// Starts connecting. Returns true if the connection is already established.
+	boolean open(Selector selector, Object attachment) throws IOException;
+
+	/* Completes a pending connection. Returns true when established.
+	 * Called when the channel is connectable, and on every engine loop while pending.
+	 */
+	boolean finishConnect() throws IOException;
+
+	// Non blocking, same semantics of ReadableByteChannel.read
+	int read(ByteBuffer dst) throws IOException;
+
+	// Non blocking, same semantics of WritableByteChannel.write
+	int write(ByteBuffer src) throws IOException;
+
+	// Also wait for the transport to become writable
+	void setWriteInterest(boolean on);
+
+	void close();
+}
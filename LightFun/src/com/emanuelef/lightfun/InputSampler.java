@@ -0,0 +1,100 @@
+package com.emanuelef.lightfun;
+
+import android.os.Handler;
+import android.os.SystemClock;
+
+import com.emanuelef.lightfun.Bulb.LightController;
+
+/*
+ * Sits between a widget and the LightController, so that a drag does not turn into
+ * one update per touch event.
+ * While the pointer moves, values are emitted at most once per frame and not faster
+ * than the gateway acknowledges them. As soon as the pointer rests for a frame, or on
+ * release, the last value is emitted without waiting.
+ * To be used from the UI thread.
+ */
+public class InputSampler implements Runnable {
+	static final long FRAME_MILLIS = 16;
+
+	public interface OnSampleListener {
+		public void onSample(int value);
+	}
+
+	final Handler handler = new Handler();
+	final OnSampleListener listener;
+	LightController bulb = null;
+	int pending;
+	boolean haspending = false;
+	boolean scheduled = false;
+	long lastemit = 0;
+	long lastinput = 0;
+
+	public InputSampler(OnSampleListener listener) {
+		this.listener = listener;
+	}
+
+	// the controller whose ack rate paces the updates
+	public void setController(LightController bulb) {
+		this.bulb = bulb;
+	}
+
+	// min time between two updates during a drag
+	private long interval() {
+		if (bulb == null)
+			return FRAME_MILLIS;
+		return Math.max(FRAME_MILLIS, bulb.getServiceMillis());
+	}
+
+	private void emit(long now) {
+		haspending = false;
+		lastemit = now;
+		listener.onSample(pending);
+	}
+
+	// runs at the next frame boundary, when an update is due or the pointer rests
+	private void schedule(long now) {
+		final long at = Math.max(now + 1, Math.min(lastemit + interval(), lastinput + FRAME_MILLIS));
+
+		scheduled = true;
+		handler.postAtTime(this, (at + FRAME_MILLIS - 1) / FRAME_MILLIS * FRAME_MILLIS);
+	}
+
+	// a new value from the widget
+	public void update(int value) {
+		final long now = SystemClock.uptimeMillis();
+
+		pending = value;
+		haspending = true;
+		lastinput = now;
+
+		if (! scheduled) {
+			if (now >= lastemit + interval())
+				emit(now);
+			else
+				schedule(now);
+		}
+	}
+
+	// the widget has been released, its final value is emitted now
+	public void release(int value) {
+		handler.removeCallbacks(this);
+		scheduled = false;
+		pending = value;
+		haspending = true;
+		emit(SystemClock.uptimeMillis());
+	}
+
+	@Override
+	public void run() {
+		final long now = SystemClock.uptimeMillis();
+
+		scheduled = false;
+		if (! haspending)
+			return;
+
+		if (now >= lastemit + interval() || now - lastinput >= FRAME_MILLIS)
+			emit(now);
+		else
+			schedule(now);
+	}
+}
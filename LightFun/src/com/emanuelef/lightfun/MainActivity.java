@@ -2,8 +2,15 @@ package com.emanuelef.lightfun;
 
 import android.support.v7.app.AppCompatActivity;
 import android.support.v4.app.Fragment;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
 import android.content.res.Resources;
+import android.net.ConnectivityManager;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
 import android.view.LayoutInflater;
 import android.view.Menu;
 import android.view.MenuItem;
@@ -16,27 +23,75 @@ import android.widget.CompoundButton.OnCheckedChangeListener;
 import android.widget.Spinner;
 import android.widget.ToggleButton;
 
+import java.util.concurrent.Executor;
+
 import com.emanuelef.lightfun.BrightnessBar.OnBrightnessBarChangeLister;
+import com.emanuelef.lightfun.Bulb.LightCommands.Modes;
+import com.emanuelef.lightfun.Bulb.LightCommands.Sources;
 import com.emanuelef.lightfun.Bulb.LightController;
 import com.emanuelef.lightfun.Bulb.LightController.LightState;
 import com.emanuelef.lightfun.Bulb.LightController.onLightStateReceiver;
+import com.emanuelef.lightfun.Bulb.LightLog;
 import com.larswerkman.holocolorpicker.ColorPicker;
 import com.larswerkman.holocolorpicker.ColorPicker.OnColorChangedListener;
+import com.larswerkman.holocolorpicker.ColorPicker.OnColorSelectedListener;
 import com.larswerkman.holocolorpicker.SVBar;
 
-public class MainActivity extends AppCompatActivity implements OnColorChangedListener,
+public class MainActivity extends AppCompatActivity implements OnColorChangedListener, OnColorSelectedListener,
 	OnBrightnessBarChangeLister, OnCheckedChangeListener,  onLightStateReceiver, OnItemSelectedListener {
 	PlaceholderFragment fragment;
-	LightController bulb;
-	String host;
+	LightController bulb;		// retained across configuration changes
+	boolean retained = false;
+	int modecoloridx;		// cached, resources lookups allocate
+	int modewarmidx;
+	
+	// widgets are also updated with the received state, such changes are not sent back
+	Sources source = Sources.USER;
+	// spinner selections are notified later: the pending one not made by the user, or -1
+	int progsel = -1;
+	
+	// drags are sampled, see InputSampler
+	InputSampler colorsampler = new InputSampler(new InputSampler.OnSampleListener() {
+		@Override
+		public void onSample(int color) {
+			bulb.setColor(color);
+		}
+	});
+	InputSampler brightsampler = new InputSampler(new InputSampler.OnSampleListener() {
+		@Override
+		public void onSample(int brightness) {
+			bulb.setWarmBright(brightness);
+		}
+	});
 	
 	// Do not edit manually, use setup.sh with --local and --remote
 	public static final String SERVER_LOCAL = "192.168.1.77";
 	public static final String SERVER_REMOTE = "2.231.26.11";
+	
+	// controller notifications are run on the UI thread
+	static final Executor UI_DISPATCHER = new Executor() {
+		final Handler handler = new Handler(Looper.getMainLooper());
+		
+		@Override
+		public void execute(Runnable command) {
+			handler.post(command);
+		}
+	};
+	
+	// retry to connect as soon as the network changes
+	private BroadcastReceiver netreceiver = new BroadcastReceiver() {
+		@Override
+		public void onReceive(Context context, Intent intent) {
+			// the sticky broadcast delivered on registration is not a change
+			if (bulb != null && ! isInitialStickyBroadcast())
+				bulb.reconnect();
+		}
+	};
 
 	@Override
 	protected void onCreate(Bundle savedInstanceState) {
 		super.onCreate(savedInstanceState);
+		LightLog.setSink(new AndroidLogSink());
 		setContentView(R.layout.activity_main);
 		
 		if (savedInstanceState == null) {
@@ -47,14 +102,53 @@ public class MainActivity extends AppCompatActivity implements OnColorChangedLis
 			fragment = (PlaceholderFragment) getSupportFragmentManager().getFragments().get(0);
 		}
 		
-		this.host = SERVER_REMOTE;
-		this.bulb = new LightController(this, this, host);
+		modecoloridx = getModeIndex(R.string.mode_color);
+		modewarmidx = getModeIndex(R.string.mode_warm);
+		
+		this.bulb = (LightController) getLastCustomNonConfigurationInstance();
+		if (bulb != null)
+			bulb.setReceiver(this, UI_DISPATCHER);
+		else
+			this.bulb = new LightController(this, UI_DISPATCHER, getFilesDir(), SERVER_REMOTE);
+		colorsampler.setController(bulb);
+		brightsampler.setController(bulb);
+		registerReceiver(netreceiver, new IntentFilter(ConnectivityManager.CONNECTIVITY_ACTION));
+	}
+	
+	@Override
+	protected void onStart() {
+		super.onStart();
+		
+		// a retained controller does not notify its connection and state again
+		LightState state = bulb.getLastState();
+		if (bulb.isConnected()) {
+			fragment.constatus.setChecked(true);
+			if (state == null)
+				bulb.queryState();
+		}
+		
+		// otherwise the saved state is shown, the gateway one replaces it when received
+		if (state == null)
+			state = bulb.getSavedState();
+		if (state != null)
+			onInitState(state);
+	}
+	
+	// the controller and its connection survive the activity recreation
+	@Override
+	public Object onRetainCustomNonConfigurationInstance() {
+		retained = true;
+		return bulb;
 	}
 	
 	@Override
 	protected void onDestroy() {
 		super.onDestroy();
-		bulb.finish();		
+		unregisterReceiver(netreceiver);
+		if (retained)
+			bulb.setReceiver(null, null);
+		else
+			bulb.finish();
 	}
 
 	@Override
@@ -88,36 +182,85 @@ public class MainActivity extends AppCompatActivity implements OnColorChangedLis
 		return -1;
 	}
 	
+	private void selectMode(int idx) {
+		if (idx != fragment.modesel.getSelectedItemPosition()) {
+			progsel = idx;
+			fragment.modesel.setSelection(idx);
+		}
+	}
+	
 	@Override
 	public void onColorChanged(int color) {
+		selectMode(modecoloridx);
+		
+		if (source != Sources.USER) {
+			bulb.setColor(color, source);
+			return;
+		}
 		fragment.modified = true;
-		fragment.modesel.setSelection(getModeIndex(R.string.mode_color));
-		bulb.setColor(color);
+		colorsampler.update(color);
+	}
+	
+	@Override
+	public void onColorSelected(int color) {
+		colorsampler.release(color);
 	}
 
 	@Override
 	public void onBrightnessChanged(int brightness) {
-		bulb.setWarmBright(brightness);
-		fragment.modesel.setSelection(getModeIndex(R.string.mode_warm));
+		brightsampler.update(brightness);
+		selectMode(modewarmidx);
+	}
+	
+	@Override
+	public void onBrightnessSelected(int brightness) {
+		brightsampler.release(brightness);
 	}
 	
 	@Override
 	public void onCheckedChanged(CompoundButton buttonView, boolean isChecked) {
 		switch (buttonView.getId()) {
 		case R.id.onoff:
-			fragment.modified = true;
-			bulb.setOn(isChecked);
+			if (source == Sources.USER)
+				fragment.modified = true;
+			bulb.setOn(isChecked, source);
 			break;
 		}
 		
 	}
 	
+	private int getModeRes(Modes mode) {
+		switch (mode) {
+		case MODE_WARM:
+			return R.string.mode_warm;
+		case MODE_COOL:
+			return R.string.mode_cool;
+		case MODE_DISCO:
+			return R.string.mode_disco;
+		case MODE_SOFT:
+			return R.string.mode_soft;
+		default:
+			return R.string.mode_color;
+		}
+	}
+	
 	@Override
 	public void onInitState(LightState state) {
-		// TODO also get and set current mode and brightness
-		if (! fragment.modified)
-			fragment.picker.setColor(state.color);
-		fragment.onoff.setChecked(state.ison);
+		source = Sources.REMOTE;
+		try {
+			if (! fragment.modified) {
+				fragment.picker.setColor(state.color);
+				
+				// mode and brightness are only known to newer gateways
+				if (state.mode != null) {
+					fragment.brbar.setValue(state.brightness);
+					selectMode(getModeIndex(getModeRes(state.mode)));
+				}
+			}
+			fragment.onoff.setChecked(state.ison);
+		} finally {
+			source = Sources.USER;
+		}
 	}
 
 	@Override
@@ -142,27 +285,24 @@ public class MainActivity extends AppCompatActivity implements OnColorChangedLis
 		else if (item.equals(res.getString(R.string.remoteserver)))
 			nhost = SERVER_REMOTE;
 		
-		if (nhost != host) {
-			host = nhost;
-			if (bulb != null)
-				bulb.finish();
-			this.bulb = new LightController(this, this, host);
-		}
+		// also notified at layout time, when it is the current host
+		if (nhost != null)
+			bulb.setHost(nhost);
 	}
 	
-	private void onModeSel(String item) {
+	private void onModeSel(String item, Sources source) {
 		Resources res = getResources();
 		
 		if (item.equals(res.getString(R.string.mode_color)))
-			bulb.setColor(fragment.getColor());
+			bulb.setColor(fragment.getColor(), source);
 		else if (item.equals(res.getString(R.string.mode_warm)))
-			bulb.setWarmBright(fragment.getBrightness());
+			bulb.setWarmBright(fragment.getBrightness(), source);
 		else if (item.equals(res.getString(R.string.mode_disco)))
-			bulb.setDiscoMode();
+			bulb.setMode(Modes.MODE_DISCO, source);
 		else if (item.equals(res.getString(R.string.mode_cool)))
-			bulb.setCoolMode();
+			bulb.setMode(Modes.MODE_COOL, source);
 		else if (item.equals(res.getString(R.string.mode_soft)))
-			bulb.setSoftMode();
+			bulb.setMode(Modes.MODE_SOFT, source);
 	}
 	
 	@Override
@@ -175,7 +315,9 @@ public class MainActivity extends AppCompatActivity implements OnColorChangedLis
 			onHostSel(item);
 			break;
 		case R.id.modesel:
-			onModeSel(item);
+			// selected by selectMode or at layout time, the bulb is already in that mode
+			onModeSel(item, (position == progsel) ? Sources.PROGRAMMATIC : Sources.USER);
+			progsel = -1;
 			break;
 		}
 	}
@@ -208,6 +350,7 @@ public class MainActivity extends AppCompatActivity implements OnColorChangedLis
 			SVBar svBar = (SVBar) rootView.findViewById(R.id.svbar);
 			picker.addSVBar(svBar);
 			picker.setOnColorChangedListener(activity);
+			picker.setOnColorSelectedListener(activity);
 
 			// Setup brightness bar
 			brbar = (BrightnessBar) rootView.findViewById(R.id.brbar);
@@ -225,6 +368,14 @@ public class MainActivity extends AppCompatActivity implements OnColorChangedLis
 			return rootView;
 		}
 		
+		@Override
+		public void onViewStateRestored(Bundle savedInstanceState) {
+			super.onViewStateRestored(savedInstanceState);
+			
+			// the initial selection, possibly restored, is notified too
+			((MainActivity) getActivity()).progsel = modesel.getSelectedItemPosition();
+		}
+		
 		public int getBrightness() {
 			return brbar.getValue();
 		}
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2012 Lars Werkman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.larswerkman.holocolorpicker;
+
+import android.graphics.LinearGradient;
+import android.graphics.Shader;
+
+/**
+ * The gradient shader of a bar, shared by all the bars.
+ * <p>
+ * The {@code ColorPicker} sets the color of every linked bar on each move
+ * event. The shader is only rebuilt when the bar geometry changes or a stop
+ * color moves by more than {@link #COLOR_THRESHOLD} on some channel; otherwise
+ * the current one is returned. Only the drawing is approximated, the colors
+ * the bars select are still computed exactly.
+ * </p>
+ */
+final class BarGradient {
+	/**
+	 * Max channel difference of a stop color which still reuses the shader.
+	 */
+	static final int COLOR_THRESHOLD = 4;
+
+	private Shader mShader;
+	private int[] mColors;
+	private int mX0, mX1, mY1;
+
+	/**
+	 * Get the shader for a gradient from {@code (x0, 0)} to {@code (x1, y1)}
+	 * through two colors.
+	 */
+	Shader update(int x0, int x1, int y1, int c0, int c1) {
+		if (isCurrent(x0, x1, y1, 2) && isClose(mColors[0], c0)
+				&& isClose(mColors[1], c1)) {
+			return mShader;
+		}
+		return build(x0, x1, y1, new int[] { c0, c1 });
+	}
+
+	/**
+	 * Get the shader for a gradient from {@code (x0, 0)} to {@code (x1, y1)}
+	 * through three colors.
+	 */
+	Shader update(int x0, int x1, int y1, int c0, int c1, int c2) {
+		if (isCurrent(x0, x1, y1, 3) && isClose(mColors[0], c0)
+				&& isClose(mColors[1], c1) && isClose(mColors[2], c2)) {
+			return mShader;
+		}
+		return build(x0, x1, y1, new int[] { c0, c1, c2 });
+	}
+
+	private boolean isCurrent(int x0, int x1, int y1, int stops) {
+		return mShader != null && mColors.length == stops && mX0 == x0
+				&& mX1 == x1 && mY1 == y1;
+	}
+
+	private static boolean isClose(int a, int b) {
+		for (int shift = 0; shift < 32; shift += 8) {
+			int d = ((a >>> shift) & 0xff) - ((b >>> shift) & 0xff);
+			if (d > COLOR_THRESHOLD || d < -COLOR_THRESHOLD) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private Shader build(int x0, int x1, int y1, int[] colors) {
+		mX0 = x0;
+		mX1 = x1;
+		mY1 = y1;
+		mColors = colors;
+		mShader = new LinearGradient(x0, 0, x1, y1, colors, null,
+				Shader.TileMode.CLAMP);
+		return mShader;
+	}
+}
@@ -21,9 +21,11 @@ import com.emanuelef.lightfun.R;
 import android.content.Context;
 import android.content.res.Resources;
 import android.content.res.TypedArray;
+import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Paint;
+import android.graphics.Rect;
 import android.graphics.RectF;
 import android.graphics.Shader;
 import android.graphics.SweepGradient;
@@ -54,8 +56,7 @@ public class ColorPicker extends View {
 	/**
 	 * Colors to construct the color wheel using {@link android.graphics.SweepGradient}.
 	 */
-	private static final int[] COLORS = new int[] { 0xFFFF0000, 0xFFFF00FF,
-			0xFF0000FF, 0xFF00FFFF, 0xFF00FF00, 0xFFFFFF00, 0xFFFF0000 };
+	private static final int[] COLORS = HueTable.COLORS;
 
 	/**
 	 * {@code Paint} instance used to draw the color wheel.
@@ -115,6 +116,18 @@ public class ColorPicker extends View {
 	 */
 	private RectF mCenterRectangle = new RectF();
 
+	/**
+	 * The color wheel ring, rendered once per size.
+	 * 
+	 * @see #renderWheel(int)
+	 */
+	private Bitmap mWheelBitmap;
+
+	/**
+	 * Scratch rectangle for the partial invalidations.
+	 */
+	private final Rect mDirtyRect = new Rect();
+
 	/**
 	 * {@code true} if the user clicked on the pointer to start the move mode. <br>
 	 * {@code false} once the user stops touching the screen.
@@ -200,6 +213,12 @@ public class ColorPicker extends View {
 	 */
 	private float[] mHSV = new float[3];
 
+	/**
+	 * Scratch buffer filled by {@link #calculatePointerPosition(float)}, so that
+	 * drawing and touch handling do not allocate.
+	 */
+	private final float[] mPointerPosition = new float[2];
+
 	/**
 	 * {@code SVBar} instance used to control the Saturation/Value bar.
 	 */
@@ -387,8 +406,14 @@ public class ColorPicker extends View {
 		// them we let Canvas do the work for us.
 		canvas.translate(mTranslationOffset, mTranslationOffset);
 
-		// Draw the color wheel.
-		canvas.drawOval(mColorWheelRectangle, mColorWheelPaint);
+		// Draw the color wheel, cached since it never changes.
+		final int size = Math.round(mTranslationOffset * 2);
+		if (size > 0 && (mWheelBitmap == null || mWheelBitmap.getWidth() != size)) {
+			renderWheel(size);
+		}
+		if (mWheelBitmap != null) {
+			canvas.drawBitmap(mWheelBitmap, -mTranslationOffset, -mTranslationOffset, null);
+		}
 
 		float[] pointerPosition = calculatePointerPosition(mAngle);
 
@@ -417,6 +442,68 @@ public class ColorPicker extends View {
 		}
 	}
 
+	/**
+	 * Render the color wheel ring into {@code mWheelBitmap}.
+	 * 
+	 * @param size Side of the view, in pixels.
+	 */
+	private void renderWheel(int size) {
+		if (mWheelBitmap != null) {
+			mWheelBitmap.recycle();
+		}
+		mWheelBitmap = Bitmap.createBitmap(size, size, Bitmap.Config.ARGB_8888);
+
+		Canvas canvas = new Canvas(mWheelBitmap);
+		canvas.translate(mTranslationOffset, mTranslationOffset);
+		canvas.drawOval(mColorWheelRectangle, mColorWheelPaint);
+	}
+
+	@Override
+	protected void onDetachedFromWindow() {
+		super.onDetachedFromWindow();
+		if (mWheelBitmap != null) {
+			mWheelBitmap.recycle();
+			mWheelBitmap = null;
+		}
+	}
+
+	/**
+	 * Add the pointer area at the given angle, halo included, to
+	 * {@code mDirtyRect}.
+	 * 
+	 * @param angle The position of the pointer expressed as angle (in rad).
+	 */
+	private void unionPointerRect(float angle) {
+		float[] pointerPosition = calculatePointerPosition(angle);
+		int x = Math.round(pointerPosition[0] + mTranslationOffset);
+		int y = Math.round(pointerPosition[1] + mTranslationOffset);
+		int r = mColorPointerHaloRadius + 1;
+
+		mDirtyRect.union(x - r, y - r, x + r, y + r);
+	}
+
+	/**
+	 * Invalidate only the union of the old and new pointer areas.
+	 * 
+	 * @param oldAngle The previous position of the pointer (in rad).
+	 */
+	private void invalidatePointer(float oldAngle) {
+		mDirtyRect.setEmpty();
+		unionPointerRect(oldAngle);
+		unionPointerRect(mAngle);
+		invalidate(mDirtyRect);
+	}
+
+	/**
+	 * Invalidate only the center, halo included.
+	 */
+	private void invalidateCenter() {
+		int c = Math.round(mTranslationOffset);
+		int r = mColorCenterHaloRadius + 1;
+
+		invalidate(c - r, c - r, c + r, c + r);
+	}
+
 	@Override
 	protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
 		final int intrinsicSize = 2 * (mPreferredColorWheelRadius + mColorPointerHaloRadius);
@@ -460,46 +547,17 @@ public class ColorPicker extends View {
 				mColorCenterRadius, mColorCenterRadius);
 	}
 
-	private int ave(int s, int d, float p) {
-		return s + Math.round(p * (d - s));
-	}
-
 	/**
 	 * Calculate the color using the supplied angle.
 	 * 
 	 * @param angle The selected color's position expressed as angle (in rad).
 	 * 
 	 * @return The ARGB value of the color on the color wheel at the specified
-	 *         angle.
+	 *         angle, from the precomputed {@link HueTable}.
 	 */
 	private int calculateColor(float angle) {
-		float unit = (float) (angle / (2 * Math.PI));
-		if (unit < 0) {
-			unit += 1;
-		}
-
-		if (unit <= 0) {
-			mColor = COLORS[0];
-			return COLORS[0];
-		}
-		if (unit >= 1) {
-			mColor = COLORS[COLORS.length - 1];
-			return COLORS[COLORS.length - 1];
-		}
-
-		float p = unit * (COLORS.length - 1);
-		int i = (int) p;
-		p -= i;
-
-		int c0 = COLORS[i];
-		int c1 = COLORS[i + 1];
-		int a = ave(Color.alpha(c0), Color.alpha(c1), p);
-		int r = ave(Color.red(c0), Color.red(c1), p);
-		int g = ave(Color.green(c0), Color.green(c1), p);
-		int b = ave(Color.blue(c0), Color.blue(c1), p);
-
-		mColor = Color.argb(a, r, g, b);
-		return Color.argb(a, r, g, b);
+		mColor = HueTable.angleToColor(angle);
+		return mColor;
 	}
 
 	/**
@@ -564,6 +622,7 @@ public class ColorPicker extends View {
 			mValueBar.setValue(mHSV[2]);
 		}
         setNewCenterColor(color);
+        invalidate();
 	}
 
 	/**
@@ -575,10 +634,7 @@ public class ColorPicker extends View {
 	 *         color wheel.
 	 */
 	private float colorToAngle(int color) {
-		float[] colors = new float[3];
-		Color.colorToHSV(color, colors);
-		
-		return (float) Math.toRadians(-colors[0]);
+		return HueTable.colorToAngle(color);
 	}
 
 	@Override
@@ -593,10 +649,8 @@ public class ColorPicker extends View {
 		case MotionEvent.ACTION_DOWN:
 			// Check whether the user pressed on the pointer.
 			float[] pointerPosition = calculatePointerPosition(mAngle);
-			if (x >= (pointerPosition[0] - mColorPointerHaloRadius)
-					&& x <= (pointerPosition[0] + mColorPointerHaloRadius)
-					&& y >= (pointerPosition[1] - mColorPointerHaloRadius)
-					&& y <= (pointerPosition[1] + mColorPointerHaloRadius)) {
+			if (ColorWheelGeometry.isOnPointer(x, y, pointerPosition,
+					mColorPointerHaloRadius)) {
 				mSlopX = x - pointerPosition[0];
 				mSlopY = y - pointerPosition[1];
 				mUserIsMovingPointer = true;
@@ -610,13 +664,13 @@ public class ColorPicker extends View {
 				setColor(getOldCenterColor());
 				invalidate();
 			}
-                        // Check whether the user pressed anywhere on the wheel.
-                        else if (Math.sqrt(x*x + y*y)  <= mColorWheelRadius + mColorPointerHaloRadius
-                                        && Math.sqrt(x*x + y*y) >= mColorWheelRadius - mColorPointerHaloRadius
-                                        && mTouchAnywhereOnColorWheelEnabled) {
-                                mUserIsMovingPointer = true;
-                                invalidate();
-                        }
+			// Check whether the user pressed anywhere on the wheel.
+			else if (mTouchAnywhereOnColorWheelEnabled
+					&& ColorWheelGeometry.isOnWheel(x, y, mColorWheelRadius,
+							mColorPointerHaloRadius)) {
+				mUserIsMovingPointer = true;
+				invalidate();
+			}
 			// If user did not press pointer or center, report event not handled
 			else{
 				getParent().requestDisallowInterceptTouchEvent(false);
@@ -625,7 +679,8 @@ public class ColorPicker extends View {
 			break;
 		case MotionEvent.ACTION_MOVE:
 			if (mUserIsMovingPointer) {
-				mAngle = (float) Math.atan2(y - mSlopY, x - mSlopX);
+				float oldAngle = mAngle;
+				mAngle = ColorWheelGeometry.touchAngle(x, y, mSlopX, mSlopY);
 				mPointerColor.setColor(calculateColor(mAngle));
 
 				setNewCenterColor(mCenterNewColor = calculateColor(mAngle));
@@ -646,7 +701,7 @@ public class ColorPicker extends View {
 					mSVbar.setColor(mColor);
 				}
 
-				invalidate();
+				invalidatePointer(oldAngle);
 			}
 			// If user did not press pointer or center, report event not handled
 			else{
@@ -663,7 +718,7 @@ public class ColorPicker extends View {
 				oldSelectedListenerColor = mCenterNewColor;
 			}
 
-			invalidate();
+			invalidateCenter();
 			break;
 		case MotionEvent.ACTION_CANCEL:
 			if (onColorSelectedListener != null && mCenterNewColor != oldSelectedListenerColor) {
@@ -682,13 +737,12 @@ public class ColorPicker extends View {
 	 * @param angle The position of the pointer expressed as angle (in rad).
 	 * 
 	 * @return The coordinates of the pointer's center in our internal
-	 *         coordinate system.
+	 *         coordinate system. The array is reused by the next call.
 	 */
 	private float[] calculatePointerPosition(float angle) {
-		float x = (float) (mColorWheelRadius * Math.cos(angle));
-		float y = (float) (mColorWheelRadius * Math.sin(angle));
+		ColorWheelGeometry.pointerPosition(mColorWheelRadius, angle, mPointerPosition);
 
-		return new float[] { x, y };
+		return mPointerPosition;
 	}
 
 	/**
@@ -743,7 +797,7 @@ public class ColorPicker extends View {
 			onColorChangedListener.onColorChanged(color);
 			oldChangedListenerColor  = color;
 		}
-		invalidate();
+		invalidateCenter();
 	}
 
 	/**
@@ -754,7 +808,7 @@ public class ColorPicker extends View {
 	public void setOldCenterColor(int color) {
 		mCenterOldColor = color;
 		mCenterOldPaint.setColor(color);
-		invalidate();
+		invalidateCenter();
 	}
 
 	public int getOldCenterColor() {
@@ -768,7 +822,7 @@ public class ColorPicker extends View {
 	 */
 	public void setShowOldCenterColor(boolean show) {
 		mShowCenterOldColor = show;
-		invalidate();
+		invalidateCenter();
 	}
 	
 	public boolean getShowOldCenterColor() {
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2012 Lars Werkman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.larswerkman.holocolorpicker;
+
+/**
+ * Geometry of the color wheel used by {@link ColorPicker} on every draw and
+ * touch event.
+ * <p>
+ * Coordinates are in the internal coordinate system of the picker, centered on
+ * the wheel. Nothing here depends on Android or allocates.
+ * </p>
+ */
+final class ColorWheelGeometry {
+	private ColorWheelGeometry() {}
+
+	/**
+	 * Calculate the pointer's coordinates on the color wheel.
+	 *
+	 * @param radius The radius of the color wheel.
+	 * @param angle The position of the pointer expressed as angle (in rad).
+	 * @param out Filled with the x and y of the pointer's center.
+	 */
+	static void pointerPosition(float radius, float angle, float[] out) {
+		out[0] = (float) (radius * Math.cos(angle));
+		out[1] = (float) (radius * Math.sin(angle));
+	}
+
+	/**
+	 * Whether a touch falls on the pointer, halo included.
+	 *
+	 * @param x The x of the touch.
+	 * @param y The y of the touch.
+	 * @param pointer The pointer's center, as filled by
+	 *            {@link #pointerPosition(float, float, float[])}.
+	 * @param halo The radius of the pointer's halo.
+	 */
+	static boolean isOnPointer(float x, float y, float[] pointer, float halo) {
+		return x >= (pointer[0] - halo) && x <= (pointer[0] + halo)
+				&& y >= (pointer[1] - halo) && y <= (pointer[1] + halo);
+	}
+
+	/**
+	 * Whether a touch falls on the ring of the wheel the pointer can move on.
+	 *
+	 * @param x The x of the touch.
+	 * @param y The y of the touch.
+	 * @param radius The radius of the color wheel.
+	 * @param halo The radius of the pointer's halo, the width of the ring
+	 *            on each side of the wheel.
+	 */
+	static boolean isOnWheel(float x, float y, float radius, float halo) {
+		final float d2 = x * x + y * y;
+		final float outer = radius + halo;
+		final float inner = radius - halo;
+
+		return d2 <= outer * outer && (inner <= 0 || d2 >= inner * inner);
+	}
+
+	/**
+	 * Angle of the pointer dragged to a touch.
+	 *
+	 * @param x The x of the touch.
+	 * @param y The y of the touch.
+	 * @param slopX The x offset of the touch from the pointer when it was
+	 *            grabbed.
+	 * @param slopY The y offset of the touch from the pointer when it was
+	 *            grabbed.
+	 *
+	 * @return The angle (in rad), in [-PI, PI].
+	 */
+	static float touchAngle(float x, float y, float slopX, float slopY) {
+		return (float) Math.atan2(y - slopY, x - slopX);
+	}
+}
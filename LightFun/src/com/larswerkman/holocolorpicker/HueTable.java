@@ -0,0 +1,130 @@
+/*
+ * Copyright 2012 Lars Werkman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.larswerkman.holocolorpicker;
+
+/**
+ * Precomputed conversions between the color wheel angle and its color.
+ * <p>
+ * The wheel is sampled into {@link #STEPS} entries, the reverse conversion
+ * computes the hue with integer math and a reciprocal table. Neither direction
+ * divides by a variable or allocates, so they are cheap enough for every touch
+ * event.
+ * </p>
+ */
+final class HueTable {
+	/**
+	 * Number of samples of the color wheel, about 0.09 degrees each.
+	 */
+	static final int STEPS = 4096;
+
+	/**
+	 * Colors of the wheel, same as the {@code SweepGradient} drawing it.
+	 */
+	static final int[] COLORS = new int[] { 0xFFFF0000, 0xFFFF00FF,
+			0xFF0000FF, 0xFF00FFFF, 0xFF00FF00, 0xFFFFFF00, 0xFFFF0000 };
+
+	/**
+	 * Wheel color by sample, {@code STEPS + 1} entries so that both ends are included.
+	 */
+	private static final int[] COLOR_BY_STEP = new int[STEPS + 1];
+
+	/**
+	 * {@code 60 / d} for the channel ranges {@code d} of the hue formula.
+	 */
+	private static final float[] HUE_SCALE = new float[256];
+
+	private static final float TWO_PI = (float) (2 * Math.PI);
+	private static final float DEG_TO_RAD = (float) (Math.PI / 180);
+
+	static {
+		for (int i = 0; i <= STEPS; i++) {
+			float p = (float) i / STEPS * (COLORS.length - 1);
+			int k = Math.min((int) p, COLORS.length - 2);
+			p -= k;
+
+			int c0 = COLORS[k];
+			int c1 = COLORS[k + 1];
+			COLOR_BY_STEP[i] = (ave(c0 >>> 24, c1 >>> 24, p) << 24)
+					| (ave((c0 >> 16) & 0xff, (c1 >> 16) & 0xff, p) << 16)
+					| (ave((c0 >> 8) & 0xff, (c1 >> 8) & 0xff, p) << 8)
+					| ave(c0 & 0xff, c1 & 0xff, p);
+		}
+
+		for (int d = 1; d < HUE_SCALE.length; d++)
+			HUE_SCALE[d] = 60f / d;
+	}
+
+	private HueTable() {}
+
+	private static int ave(int s, int d, float p) {
+		return s + Math.round(p * (d - s));
+	}
+
+	/**
+	 * Color of the wheel at the given angle.
+	 *
+	 * @param angle The position expressed as angle (in rad), in [-2 PI, 2 PI].
+	 *
+	 * @return The ARGB value of the color.
+	 */
+	static int angleToColor(float angle) {
+		float unit = angle / TWO_PI;
+		if (unit < 0) {
+			unit += 1;
+		}
+
+		if (unit <= 0) {
+			return COLOR_BY_STEP[0];
+		}
+		if (unit >= 1) {
+			return COLOR_BY_STEP[STEPS];
+		}
+		return COLOR_BY_STEP[(int) (unit * STEPS + 0.5f)];
+	}
+
+	/**
+	 * Angle of a color on the wheel, i.e. its hue as {@code Color.colorToHSV}
+	 * computes it.
+	 *
+	 * @param color The RGB value of the color.
+	 *
+	 * @return The angle (in rad), in [-2 PI, 0].
+	 */
+	static float colorToAngle(int color) {
+		final int r = (color >> 16) & 0xff;
+		final int g = (color >> 8) & 0xff;
+		final int b = color & 0xff;
+		final int max = Math.max(r, Math.max(g, b));
+		final int d = max - Math.min(r, Math.min(g, b));
+		float hue;
+
+		if (d == 0) {
+			return 0;
+		} else if (r == max) {
+			hue = (g - b) * HUE_SCALE[d];
+		} else if (g == max) {
+			hue = 120 + (b - r) * HUE_SCALE[d];
+		} else {
+			hue = 240 + (r - g) * HUE_SCALE[d];
+		}
+
+		if (hue < 0) {
+			hue += 360;
+		}
+		return -hue * DEG_TO_RAD;
+	}
+}
@@ -21,7 +21,6 @@ import android.content.res.Resources;
 import android.content.res.TypedArray;
 import android.graphics.Canvas;
 import android.graphics.Color;
-import android.graphics.LinearGradient;
 import android.graphics.Paint;
 import android.graphics.RectF;
 import android.graphics.Shader;
@@ -105,6 +104,11 @@ public class OpacityBar extends View {
 	 */
 	private Shader shader;
 
+	/**
+	 * Reuses {@code shader} while the bar colors do not change noticeably.
+	 */
+	private final BarGradient mGradient = new BarGradient();
+
 	/**
 	 * {@code true} if the user clicked on the pointer to start the move mode. <br>
 	 * {@code false} once the user stops touching the screen.
@@ -286,15 +290,11 @@ public class OpacityBar extends View {
 
 		// Update variables that depend of mBarLength.
 		if (!isInEditMode()){
-			shader = new LinearGradient(mBarPointerHaloRadius, 0,
-					x1, y1, new int[] {
-							Color.HSVToColor(0x00, mHSVColor),
-							Color.HSVToColor(0xFF, mHSVColor) }, null,
-					Shader.TileMode.CLAMP);
+			shader = mGradient.update(mBarPointerHaloRadius, x1, y1,
+					Color.HSVToColor(0x00, mHSVColor), Color.HSVToColor(0xFF, mHSVColor));
 		} else {
-			shader = new LinearGradient(mBarPointerHaloRadius, 0,
-					x1, y1, new int[] {
-							0x0081ff00, 0xff81ff00 }, null, Shader.TileMode.CLAMP);
+			shader = mGradient.update(mBarPointerHaloRadius, x1, y1,
+					0x0081ff00, 0xff81ff00);
 			Color.colorToHSV(0xff81ff00, mHSVColor);
 		}
 		
@@ -421,10 +421,8 @@ public class OpacityBar extends View {
 		}
 		
 		Color.colorToHSV(color, mHSVColor);
-		shader = new LinearGradient(mBarPointerHaloRadius, 0,
-				x1, y1, new int[] {
-						Color.HSVToColor(0x00, mHSVColor), color }, null,
-				Shader.TileMode.CLAMP);
+		shader = mGradient.update(mBarPointerHaloRadius, x1, y1,
+				Color.HSVToColor(0x00, mHSVColor), color);
 		mBarPaint.setShader(shader);
 		calculateColor(mBarPointerPosition);
 		mBarPointerPaint.setColor(mColor);
@@ -21,7 +21,6 @@ import android.content.res.Resources;
 import android.content.res.TypedArray;
 import android.graphics.Canvas;
 import android.graphics.Color;
-import android.graphics.LinearGradient;
 import android.graphics.Paint;
 import android.graphics.RectF;
 import android.graphics.Shader;
@@ -106,6 +105,11 @@ public class SVBar extends View {
 	 */
 	private Shader shader;
 
+	/**
+	 * Reuses {@code shader} while the bar colors do not change noticeably.
+	 */
+	private final BarGradient mGradient = new BarGradient();
+
 	/**
 	 * {@code true} if the user clicked on the pointer to start the move mode. <br>
 	 * {@code false} once the user stops touching the screen.
@@ -125,6 +129,12 @@ public class SVBar extends View {
 	 */
 	private float[] mHSVColor = new float[3];
 
+	/**
+	 * Scratch HSV array for {@code calculateColor}, so moving the pointer does
+	 * not allocate.
+	 */
+	private float[] mHSVScratch = new float[3];
+
 	/**
 	 * Factor used to calculate the position to the Saturation/Value on the bar.
 	 */
@@ -264,15 +274,11 @@ public class SVBar extends View {
 
 		// Update variables that depend of mBarLength.
 		if(!isInEditMode()){
-			shader = new LinearGradient(mBarPointerHaloRadius, 0,
-					x1, y1, new int[] {
-							0xffffffff, Color.HSVToColor(mHSVColor), 0xff000000 },
-					null, Shader.TileMode.CLAMP);
+			shader = mGradient.update(mBarPointerHaloRadius, x1, y1,
+					0xffffffff, Color.HSVToColor(mHSVColor), 0xff000000);
 		} else {
-			shader = new LinearGradient(mBarPointerHaloRadius, 0,
-					x1, y1, new int[] {
-							0xffffffff, 0xff81ff00, 0xff000000 }, null,
-					Shader.TileMode.CLAMP);
+			shader = mGradient.update(mBarPointerHaloRadius, x1, y1,
+					0xffffffff, 0xff81ff00, 0xff000000);
 			Color.colorToHSV(0xff81ff00, mHSVColor);
 		}
 		
@@ -438,9 +444,8 @@ public class SVBar extends View {
 		}
 		
 		Color.colorToHSV(color, mHSVColor);
-		shader = new LinearGradient(mBarPointerHaloRadius, 0,
-				x1, y1, new int[] {Color.WHITE, color, Color.BLACK}, null,
-				Shader.TileMode.CLAMP);
+		shader = mGradient.update(mBarPointerHaloRadius, x1, y1,
+				Color.WHITE, color, Color.BLACK);
 		mBarPaint.setShader(shader);
 	    calculateColor(mBarPointerPosition);
 		mBarPointerPaint.setColor(mColor);
@@ -460,18 +465,20 @@ public class SVBar extends View {
 	private void calculateColor(int coord) {
 	    coord = coord - mBarPointerHaloRadius;
 		if (coord > (mBarLength / 2) && (coord < mBarLength)) {
-			mColor = Color
-					.HSVToColor(new float[] {
-							mHSVColor[0], 1f, 1 - (mPosToSVFactor * (coord - (mBarLength / 2)))
-                    });
+			mHSVScratch[0] = mHSVColor[0];
+			mHSVScratch[1] = 1f;
+			mHSVScratch[2] = 1 - (mPosToSVFactor * (coord - (mBarLength / 2)));
+			mColor = Color.HSVToColor(mHSVScratch);
 		} else if (coord > 0 && coord < mBarLength) {
-			mColor = Color.HSVToColor(new float[]{
-                    mHSVColor[0], (mPosToSVFactor * coord), 1f
-            });
+			mHSVScratch[0] = mHSVColor[0];
+			mHSVScratch[1] = (mPosToSVFactor * coord);
+			mHSVScratch[2] = 1f;
+			mColor = Color.HSVToColor(mHSVScratch);
 		} else if(coord == (mBarLength / 2)){
-            mColor = Color.HSVToColor(new float[]{
-                    mHSVColor[0], 1f, 1f
-            });
+            mHSVScratch[0] = mHSVColor[0];
+            mHSVScratch[1] = 1f;
+            mHSVScratch[2] = 1f;
+            mColor = Color.HSVToColor(mHSVScratch);
         } else if (coord <= 0) {
 			mColor = Color.WHITE;
 		} else if (coord >= mBarLength) {
@@ -21,7 +21,6 @@ import android.content.res.Resources;
 import android.content.res.TypedArray;
 import android.graphics.Canvas;
 import android.graphics.Color;
-import android.graphics.LinearGradient;
 import android.graphics.Paint;
 import android.graphics.RectF;
 import android.graphics.Shader;
@@ -105,6 +104,11 @@ public class ValueBar extends View {
 	 */
 	private Shader shader;
 
+	/**
+	 * Reuses {@code shader} while the bar colors do not change noticeably.
+	 */
+	private final BarGradient mGradient = new BarGradient();
+
 	/**
 	 * {@code true} if the user clicked on the pointer to start the move mode. <br>
 	 * {@code false} once the user stops touching the screen.
@@ -124,6 +128,12 @@ public class ValueBar extends View {
 	 */
 	private float[] mHSVColor = new float[3];
 
+	/**
+	 * Scratch HSV array for {@code calculateColor}, so moving the pointer does
+	 * not allocate.
+	 */
+	private float[] mHSVScratch = new float[3];
+
 	/**
 	 * Factor used to calculate the position to the Opacity on the bar.
 	 */
@@ -286,15 +296,11 @@ public class ValueBar extends View {
 
 		// Update variables that depend of mBarLength.
 		if (!isInEditMode()) {
-			shader = new LinearGradient(mBarPointerHaloRadius, 0,
-					x1, y1,
-					new int[] { Color.HSVToColor(0xFF, mHSVColor), Color.BLACK },
-					null, Shader.TileMode.CLAMP);
+			shader = mGradient.update(mBarPointerHaloRadius, x1, y1,
+					Color.HSVToColor(0xFF, mHSVColor), Color.BLACK);
 		} else {
-			shader = new LinearGradient(mBarPointerHaloRadius, 0,
-					x1, y1,
-					new int[] { 0xff81ff00, Color.BLACK }, null,
-					Shader.TileMode.CLAMP);
+			shader = mGradient.update(mBarPointerHaloRadius, x1, y1,
+					0xff81ff00, Color.BLACK);
 			Color.colorToHSV(0xff81ff00, mHSVColor);
 		}
 
@@ -425,9 +431,8 @@ public class ValueBar extends View {
 		}
 		
 		Color.colorToHSV(color, mHSVColor);
-		shader = new LinearGradient(mBarPointerHaloRadius, 0,
-				x1, y1, new int[] {
-						color, Color.BLACK }, null, Shader.TileMode.CLAMP);
+		shader = mGradient.update(mBarPointerHaloRadius, x1, y1,
+				color, Color.BLACK);
 		mBarPaint.setShader(shader);
 		calculateColor(mBarPointerPosition);
 		mBarPointerPaint.setColor(mColor);
@@ -469,9 +474,10 @@ public class ValueBar extends View {
 	    } else if (coord > mBarLength) {
 	    	coord = mBarLength;
 	    }
-	    mColor = Color.HSVToColor(new float[] { mHSVColor[0],
-		    				    mHSVColor[1],
-		    				    (float) (1 - (mPosToSatFactor * coord)) });
+	    mHSVScratch[0] = mHSVColor[0];
+	    mHSVScratch[1] = mHSVColor[1];
+	    mHSVScratch[2] = (float) (1 - (mPosToSatFactor * coord));
+	    mColor = Color.HSVToColor(mHSVScratch);
     }
 
 	/**
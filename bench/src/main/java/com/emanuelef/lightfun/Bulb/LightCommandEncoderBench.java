@@ -0,0 +1,61 @@
+package com.emanuelef.lightfun.Bulb;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * Request encoding, as done by LightExecutor.send for every command.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LightCommandEncoderBench {
+	LightCommandEncoder encoder;
+	LightEffect effect;
+	int color;
+	int brightness;
+
+	@Setup
+	public void setup() {
+		encoder = new LightCommandEncoder();
+		effect = new LightEffect(true);
+		for (int i = 0; i < LightEffect.MAX_KEYFRAMES; i++)
+			effect.add(0xff000000 | (i * 0x1f3b5d), 250 * i, LightEasing.values()[i % 4]);
+	}
+
+	@Benchmark
+	public ByteBuffer encodeColor() {
+		color += 0x010203;
+		return encoder.encodeColor(color);
+	}
+
+	@Benchmark
+	public ByteBuffer encodeWarm() {
+		brightness = (brightness + 1) % 100;
+		return encoder.encodeWarm(brightness);
+	}
+
+	@Benchmark
+	public ByteBuffer encodeEffect() {
+		return encoder.encodeEffect(effect);
+	}
+
+	@Benchmark
+	public ByteBuffer encodeQuery() {
+		return encoder.encode(LightCommandEncoder.QRY_FULLSTATE);
+	}
+}
@@ -0,0 +1,99 @@
+package com.emanuelef.lightfun.Bulb;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.ThreadParams;
+
+import com.emanuelef.lightfun.Bulb.LightCommands.LightCommand;
+import com.emanuelef.lightfun.Bulb.LightController.LightState;
+
+/*
+ * The write side of the command path: LightController.setColor from several threads,
+ * e.g. the UI and a transition, while the engine drains the desired state.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LightControllerBench {
+	// a controller sending to an in-process gateway, through the shared engine
+	@State(Scope.Benchmark)
+	public static class Loopback {
+		LightController controller;
+
+		@Setup(Level.Trial)
+		public void setup() {
+			LightTransport transport = new LightLoopbackTransport();
+			controller = new LightController(null, null, null, transport, LightEngine.getDefault());
+		}
+
+		@TearDown(Level.Trial)
+		public void teardown() {
+			controller.finish();
+		}
+	}
+
+	// the register alone, written by some threads and fetched by one
+	@State(Scope.Group)
+	public static class Register {
+		LightDesiredState desired;
+		LightState sent;
+
+		@Setup(Level.Iteration)
+		public void setup() {
+			desired = new LightDesiredState(new LightStats());
+			sent = new LightState();
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class Colors {
+		int color;
+
+		@Setup
+		public void setup(ThreadParams params) {
+			color = params.getThreadIndex() << 16;
+		}
+
+		int next() {
+			color += 0x010101;
+			return 0xff000000 | color;
+		}
+	}
+
+	@Benchmark
+	@Threads(4)
+	public void setColor(Loopback loopback, Colors colors) {
+		loopback.controller.setColor(colors.next());
+	}
+
+	@Benchmark
+	@Group("register")
+	@GroupThreads(3)
+	public void setColorContended(Register register, Colors colors) {
+		register.desired.setColor(colors.next());
+	}
+
+	@Benchmark
+	@Group("register")
+	@GroupThreads(1)
+	public LightCommand fetchChange(Register register) {
+		return register.desired.fetchChange(1, register.sent);
+	}
+}
@@ -0,0 +1,251 @@
+package com.emanuelef.lightfun.Bulb;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.Iterator;
+
+/*
+ * Stand-in for server.js, to load test the client on a plain JVM without a bulb.
+ * Speaks the same '$' framed protocol on a TCP port, serves a single client at a
+ * time and drops it after KEEP_ALIVE_LIMIT seconds of silence. Requests are
+ * answered by a LightGatewaySim.
+ * Forced disconnects: disconnectClient() or setDropAfter().
+ *
+ * Usage: LightGatewayServer [port [ble_latency_ms [drop_after]]]
+ */
+public class LightGatewayServer implements Runnable {
+	static final int KEEP_ALIVE_LIMIT = 10;			// seconds
+	static final int BUFFER_SIZE = 4096;
+
+	private static final Charset ASCII = Charset.forName("US-ASCII");
+
+	final LightGatewaySim gateway;
+	final int port;
+	boolean verbose = false;
+
+	Selector selector = null;
+	ServerSocketChannel server = null;
+	SocketChannel client = null;
+	SelectionKey clientkey = null;
+	final ByteBuffer rbuf = ByteBuffer.allocate(BUFFER_SIZE);
+	ByteBuffer wbuf = ByteBuffer.allocate(BUFFER_SIZE);
+	final StringBuilder partial = new StringBuilder();
+	long lastseen = 0;
+	int served = 0;
+
+	volatile boolean dorun = true;
+	volatile boolean dodrop = false;
+	volatile int dropafter = 0;
+
+	public LightGatewayServer(LightGatewaySim gateway, int port) {
+		this.gateway = gateway;
+		this.port = port;
+	}
+
+	public LightGatewaySim getGateway() {
+		return gateway;
+	}
+
+	// log each request and reply, like server.js
+	public void setVerbose(boolean verbose) {
+		this.verbose = verbose;
+	}
+
+	// drops the client after it has sent this number of requests, 0 to disable
+	public void setDropAfter(int requests) {
+		dropafter = requests;
+	}
+
+	// drops the current client. Call from any thread.
+	public void disconnectClient() {
+		dodrop = true;
+		if (selector != null)
+			selector.wakeup();
+	}
+
+	// binds the port; when 0, the actual one is returned by getPort
+	public void start() throws IOException {
+		selector = Selector.open();
+		server = ServerSocketChannel.open();
+		server.configureBlocking(false);
+		server.socket().setReuseAddress(true);
+		server.socket().bind(new InetSocketAddress(port));
+		server.register(selector, SelectionKey.OP_ACCEPT);
+	}
+
+	public int getPort() {
+		return server.socket().getLocalPort();
+	}
+
+	public void stop() {
+		dorun = false;
+		if (selector != null)
+			selector.wakeup();
+	}
+
+	private void log(String msg) {
+		if (verbose)
+			System.out.println(msg);
+	}
+
+	private void accept() throws IOException {
+		SocketChannel sock = server.accept();
+
+		if (sock == null)
+			return;
+
+		log("Client Connected");
+		if (client != null) {
+			log("No more clients supported");
+			sock.close();
+			return;
+		}
+
+		client = sock;
+		client.configureBlocking(false);
+		client.socket().setTcpNoDelay(true);
+		clientkey = client.register(selector, SelectionKey.OP_READ);
+		partial.setLength(0);
+		rbuf.clear();
+		wbuf.clear();
+		served = 0;
+		lastseen = LightClock.millis();
+	}
+
+	private void dropClient() {
+		dodrop = false;
+		if (client == null)
+			return;
+
+		log("Client disconnected");
+		clientkey.cancel();
+		try { client.close(); } catch (IOException e) {}
+		client = null;
+		clientkey = null;
+	}
+
+	private void queueReply(String reply) {
+		final int len = reply.length() + LightExecutor.SRVRPL_END.length();
+
+		if (wbuf.remaining() < len) {
+			ByteBuffer bigger = ByteBuffer.allocate(Math.max(wbuf.capacity() * 2, wbuf.position() + len));
+			wbuf.flip();
+			bigger.put(wbuf);
+			wbuf = bigger;
+		}
+		wbuf.put((reply + LightExecutor.SRVRPL_END).getBytes(ASCII));
+	}
+
+	private void flush() throws IOException {
+		wbuf.flip();
+		client.write(wbuf);
+		final boolean left = wbuf.hasRemaining();
+		wbuf.compact();
+		clientkey.interestOps(left ? (SelectionKey.OP_READ | SelectionKey.OP_WRITE) : SelectionKey.OP_READ);
+	}
+
+	private void receive() throws IOException {
+		final int n = client.read(rbuf);
+		int k;
+
+		if (n < 0) {
+			dropClient();
+			return;
+		}
+
+		lastseen = LightClock.millis();
+		rbuf.flip();
+		while (rbuf.hasRemaining())
+			partial.append((char) rbuf.get());
+		rbuf.clear();
+
+		while ((k = partial.indexOf(LightExecutor.SRVRPL_END)) != -1) {
+			final String req = partial.substring(0, k);
+			partial.delete(0, k + 1);
+
+			final String reply = gateway.processRequest(req);
+			log(" <- " + (req.length() == 0 ? "{KEEPALIVE}" : req) + "\n -> " + reply);
+			queueReply(reply);
+			served++;
+
+			if (dropafter > 0 && served >= dropafter) {
+				// replies to this request, then goes away
+				flush();
+				dropClient();
+				return;
+			}
+		}
+
+		flush();
+	}
+
+	@Override
+	public void run() {
+		while (dorun) {
+			long timeout = 0;
+
+			if (dodrop)
+				dropClient();
+
+			if (client != null) {
+				final long now = LightClock.millis();
+				final long deadline = lastseen + KEEP_ALIVE_LIMIT * 1000;
+
+				if (now >= deadline) {
+					log("Client timeout");
+					dropClient();
+				} else {
+					timeout = deadline - now;
+				}
+			}
+
+			try {
+				selector.select(timeout);
+
+				Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+				while (keys.hasNext()) {
+					SelectionKey key = keys.next();
+					keys.remove();
+
+					if (! key.isValid())
+						continue;
+					if (key.isAcceptable())
+						accept();
+					else if (key == clientkey && key.isReadable())
+						receive();
+					else if (key == clientkey && key.isWritable())
+						flush();
+				}
+			} catch (IOException exc) {
+				log("Client error: " + exc.getMessage());
+				dropClient();
+			}
+		}
+
+		dropClient();
+		try { server.close(); } catch (IOException e) {}
+		try { selector.close(); } catch (IOException e) {}
+	}
+
+	public static void main(String[] args) throws IOException {
+		final int port = (args.length > 0) ? Integer.parseInt(args[0]) : LightController.SERVER_PORT;
+		final LightGatewaySim gateway = new LightGatewaySim();
+		final LightGatewayServer server = new LightGatewayServer(gateway, port);
+
+		if (args.length > 1)
+			gateway.setBleLatency(Long.parseLong(args[1]));
+		if (args.length > 2)
+			server.setDropAfter(Integer.parseInt(args[2]));
+
+		server.setVerbose(true);
+		server.start();
+		System.out.println("Listening on port " + server.getPort());
+		server.run();
+	}
+}
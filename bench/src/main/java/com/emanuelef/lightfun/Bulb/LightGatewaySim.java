@@ -0,0 +1,199 @@
+package com.emanuelef.lightfun.Bulb;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ * Simulated gateway and Lumen, answering requests like server.js + controller.js.
+ * Each bulb write takes bleLatency millis: commands received meanwhile are
+ * PENDING and only the last one is applied when the write completes, like
+ * Controller._pending. When offline, commands are PENDING and queries OFFLINE.
+ * The arrival time of each request is recorded, to measure the client.
+ */
+public class LightGatewaySim {
+	static final String REPLY_OK = "OK";
+	static final String REPLY_PENDING = "PENDING";
+	static final String REPLY_ALIVE = "+";
+	static final String REPLY_ONLINE = "online";
+	static final String REPLY_OFFLINE = "offline";
+	static final String REQUEST_STATUS = "/status";
+	static final String COMMAND_COLOR = "/rgb";
+	static final String COMMAND_WARM = "/warm";
+	static final String COMMAND_EFFECT = "/effect";
+
+	public static class Arrival {
+		public final long time;			// LightClock.nanos()
+		public final String request;
+
+		Arrival(long time, String request) {
+			this.time = time;
+			this.request = request;
+		}
+	}
+
+	long bleLatency = 0;
+	boolean online = true;
+	boolean busy = false;
+	List<Arrival> arrivals = new ArrayList<Arrival>();
+
+	// the bulb write in progress ends at busyuntil, then pending is applied
+	long busyuntil = 0;
+	String pending = null;
+	String pendingquery = null;
+
+	// emulated bulb state
+	boolean ison = true;
+	String mode = LightExecutor.SRVRPL_MODE_WARM;
+	int color = 0xffffff;
+	int white = 90;
+
+	// duration of a bulb write, milliseconds
+	public synchronized void setBleLatency(long latency) {
+		this.bleLatency = latency;
+	}
+
+	// false emulates a gateway not connected to the bulb
+	public synchronized void setOnline(boolean online) {
+		this.online = online;
+	}
+
+	// true to reply PENDING to every command, like a bulb which never completes a write
+	public synchronized void setBusy(boolean busy) {
+		this.busy = busy;
+	}
+
+	public synchronized List<Arrival> getArrivals() {
+		return new ArrayList<Arrival>(arrivals);
+	}
+
+	public synchronized void clearArrivals() {
+		arrivals.clear();
+	}
+
+	// applies the pending command if the bulb write in progress is done
+	private void advance(long now) {
+		if (pending != null && online && ! busy && now >= busyuntil) {
+			apply(pending, pendingquery);
+			busyuntil = Math.max(busyuntil, now - bleLatency) + bleLatency;
+			pending = pendingquery = null;
+		}
+	}
+
+	private String formatColor() {
+		return String.format("0x%06x", color & 0xffffff);
+	}
+
+	// returns the reply, without SRVRPL_END. See server.js _processRequest
+	public synchronized String processRequest(String request) {
+		final long now = LightClock.millis();
+		final int qx = request.indexOf('?');
+		final String path = (qx != -1) ? request.substring(0, qx) : request;
+		final String query = (qx != -1) ? request.substring(qx + 1) : null;
+
+		arrivals.add(new Arrival(LightClock.nanos(), request));
+		advance(now);
+
+		// Query commands
+		if (path.equals(LightExecutor.SRVCMD_KEEPALIVE)) {
+			return REPLY_ALIVE;
+		} else if (path.equals(REQUEST_STATUS)) {
+			return online ? REPLY_ONLINE : REPLY_OFFLINE;
+		} else if (path.equals(LightExecutor.SRVQRY_STATE)) {
+			if (! online)
+				return LightExecutor.SRVRPL_OFFLINE;
+			return ison ? LightExecutor.SRVRPL_ON : LightExecutor.SRVRPL_OFF;
+		} else if (path.equals(LightExecutor.SRVQRY_COLOR)) {
+			if (! online)
+				return LightExecutor.SRVRPL_OFFLINE;
+			return formatColor();
+		} else if (path.equals(LightExecutor.SRVQRY_FULLSTATE)) {
+			if (! online)
+				return LightExecutor.SRVRPL_OFFLINE;
+			return (ison ? LightExecutor.SRVRPL_ON : LightExecutor.SRVRPL_OFF) + LightExecutor.SRVRPL_SEP
+					+ mode + LightExecutor.SRVRPL_SEP + formatColor() + LightExecutor.SRVRPL_SEP + white;
+		}
+
+		// Imperative commands, validate now
+		if (path.equals(COMMAND_COLOR)) {
+			if (query == null || query.length() != 8 || ! query.startsWith("0x") || parseHex(query.substring(2)) < 0)
+				return LightExecutor.SRVRPL_BAD;
+		} else if (path.equals(COMMAND_WARM)) {
+			final int val = parseInt(query);
+			if (val < 0 || val > 100)
+				return LightExecutor.SRVRPL_BAD;
+		} else if (path.equals(COMMAND_EFFECT)) {
+			if (! isEffect(query))
+				return LightExecutor.SRVRPL_BAD;
+		}
+
+		if (! online || busy || now < busyuntil) {
+			// last command wins
+			pending = path;
+			pendingquery = query;
+			return REPLY_PENDING;
+		}
+
+		apply(path, query);
+		busyuntil = now + bleLatency;
+		return REPLY_OK;
+	}
+
+	private void apply(String path, String query) {
+		if (path.equals(LightExecutor.SRVCMD_ON)) {
+			ison = true;
+		} else if (path.equals(LightExecutor.SRVCMD_OFF)) {
+			ison = false;
+		} else if (path.equals(COMMAND_COLOR)) {
+			color = parseHex(query.substring(2));
+			mode = LightExecutor.SRVRPL_MODE_COLOR;
+		} else if (path.equals(COMMAND_WARM)) {
+			white = parseInt(query);
+			mode = LightExecutor.SRVRPL_MODE_WARM;
+		} else if (path.equals(LightExecutor.SRVCMD_MODEDISCO)) {
+			mode = LightExecutor.SRVRPL_MODE_DISCO;
+		} else if (path.equals(LightExecutor.SRVCMD_MODECOOL)) {
+			mode = LightExecutor.SRVRPL_MODE_COOL;
+		} else if (path.equals(LightExecutor.SRVCMD_MODESOFT)) {
+			mode = LightExecutor.SRVRPL_MODE_SOFT;
+		} else if (path.equals(COMMAND_EFFECT)) {
+			// the program is not run, see server.js _parseEffectParam
+			mode = LightExecutor.SRVRPL_MODE_EFFECT;
+		}
+	}
+
+	// "L,RRGGBBeN,..." with at least a keyframe, see LightEffect
+	private static boolean isEffect(String query) {
+		if (query == null)
+			return false;
+
+		final String[] fields = query.split(",");
+		if (fields.length < 2 || (! fields[0].equals("0") && ! fields[0].equals("1")))
+			return false;
+
+		for (int i = 1; i < fields.length; i++) {
+			final String kf = fields[i];
+			if (kf.length() < 8 || parseHex(kf.substring(0, 6)) < 0 || "lios".indexOf(kf.charAt(6)) < 0
+					|| parseInt(kf.substring(7)) < 0)
+				return false;
+		}
+		return true;
+	}
+
+	// returns -1 on error
+	private static int parseHex(String val) {
+		try {
+			return Integer.parseInt(val, 16);
+		} catch (NumberFormatException exc) {
+			return -1;
+		}
+	}
+
+	// returns -1 on error
+	private static int parseInt(String val) {
+		try {
+			return Integer.parseInt(val);
+		} catch (NumberFormatException exc) {
+			return -1;
+		}
+	}
+}
@@ -0,0 +1,197 @@
+package com.emanuelef.lightfun.Bulb;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Pipe;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * In-memory gateway emulating the server.js replies, to exercise the client
+ * without a network or a bulb.
+ * Replies are delivered through a Pipe after the configured latency, in order.
+ * Requests are answered by a LightGatewaySim, see getGateway.
+ * The pipe is only written by the loopback thread: a write on the engine thread could
+ * block on a full pipe, which only the engine thread drains.
+ */
+public class LightLoopbackTransport implements LightTransport {
+	private static final Charset ASCII = Charset.forName("US-ASCII");
+
+	final ScheduledExecutorService scheduler;
+	final AtomicLong requests = new AtomicLong();
+	Pipe pipe = null;
+	SelectionKey key = null;
+	StringBuilder partial = new StringBuilder();
+
+	// replies not yet delivered, in request order. Their due times never decrease
+	final ArrayDeque<Delivery> pending = new ArrayDeque<Delivery>();
+	long lastdue = 0;
+
+	final LightGatewaySim gateway;
+	volatile long latency = 0;
+
+	public LightLoopbackTransport() {
+		this(new LightGatewaySim());
+	}
+
+	public LightLoopbackTransport(LightGatewaySim gateway) {
+		this.gateway = gateway;
+		scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "LightLoopback");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	// delay of each reply, milliseconds
+	public void setLatency(long latency) {
+		this.latency = latency;
+	}
+
+	public LightGatewaySim getGateway() {
+		return gateway;
+	}
+
+	// false emulates a gateway not connected to the bulb
+	public void setOnline(boolean online) {
+		gateway.setOnline(online);
+	}
+
+	// true to reply PENDING to the commands, like a busy gateway
+	public void setPending(boolean pending) {
+		gateway.setBusy(pending);
+	}
+
+	// number of requests received, keep alive included
+	public long getRequestCount() {
+		return requests.get();
+	}
+
+	@Override
+	public boolean open(Selector selector, Object attachment) throws IOException {
+		pipe = Pipe.open();
+		pipe.source().configureBlocking(false);
+		key = pipe.source().register(selector, SelectionKey.OP_READ, attachment);
+		partial.setLength(0);
+		return true;
+	}
+
+	@Override
+	public boolean finishConnect() {
+		return true;
+	}
+
+	@Override
+	public int read(ByteBuffer dst) throws IOException {
+		return pipe.source().read(dst);
+	}
+
+	// requests are processed synchronously, the write always completes
+	@Override
+	public int write(ByteBuffer src) throws IOException {
+		final int len = src.remaining();
+		final StringBuilder replies = new StringBuilder();
+		int k;
+
+		while (src.hasRemaining())
+			partial.append((char) src.get());
+
+		while ((k = partial.indexOf(LightExecutor.SRVRPL_END)) != -1) {
+			final String req = partial.substring(0, k);
+			partial.delete(0, k + 1);
+			requests.incrementAndGet();
+			replies.append(gateway.processRequest(req)).append(LightExecutor.SRVRPL_END);
+		}
+
+		if (replies.length() > 0)
+			deliver(ByteBuffer.wrap(replies.toString().getBytes(ASCII)));
+		return len;
+	}
+
+	@Override
+	public void setWriteInterest(boolean on) {}
+
+	@Override
+	public void close() {
+		synchronized (pending) {
+			pending.clear();
+		}
+		if (key != null)
+			key.cancel();
+		if (pipe != null) {
+			try { pipe.source().close(); } catch (IOException e) {}
+			try { pipe.sink().close(); } catch (IOException e) {}
+		}
+		key = null;
+		pipe = null;
+	}
+
+	static class Delivery {
+		final Pipe.SinkChannel sink;
+		final ByteBuffer data;
+		final long due;			// LightClock.millis
+
+		Delivery(Pipe.SinkChannel sink, ByteBuffer data, long due) {
+			this.sink = sink;
+			this.data = data;
+			this.due = due;
+		}
+	}
+
+	/* Queues the data for the loopback thread. A reply is never due before the previous
+	 * one, so a lowered latency cannot reorder them.
+	 */
+	private void deliver(ByteBuffer data) {
+		final long delay;
+
+		synchronized (pending) {
+			final long now = LightClock.millis();
+			lastdue = Math.max(now + latency, lastdue);
+			pending.add(new Delivery(pipe.sink(), data, lastdue));
+			delay = lastdue - now;
+		}
+		scheduler.schedule(new Runnable() {
+			@Override
+			public void run() {
+				flush();
+			}
+		}, delay, TimeUnit.MILLISECONDS);
+	}
+
+	/* Writes the due replies, in order. Runs on the loopback thread only: a write blocks
+	 * until the engine reads the pipe.
+	 */
+	void flush() {
+		while (true) {
+			final Delivery next;
+
+			synchronized (pending) {
+				next = pending.peek();
+				if ((next == null) || (next.due > LightClock.millis()))
+					return;
+			}
+
+			try {
+				while (next.data.hasRemaining())
+					next.sink.write(next.data);
+			} catch (IOException exc) {
+				// closed meanwhile
+			}
+
+			synchronized (pending) {
+				if (pending.peek() == next)
+					pending.poll();
+			}
+		}
+	}
+}
@@ -0,0 +1,79 @@
+package com.emanuelef.lightfun.Bulb;
+
+import java.nio.charset.Charset;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.emanuelef.lightfun.Bulb.LightController.LightState;
+
+/*
+ * Reply decoding, as done by LightExecutor.read: the data of a read is scanned into
+ * frames, which are then parsed.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LightReplyDecoderBench {
+	static final Charset ASCII = Charset.forName("US-ASCII");
+	static final String END = LightExecutor.SRVRPL_END;
+
+	LightReplyDecoder decoder;
+	LightState state;
+	byte[] acks;		// a pipeline of acknowledgements read at once
+	byte[] fullstate;
+	byte[] color;
+
+	@Setup
+	public void setup() {
+		decoder = new LightReplyDecoder();
+		state = new LightState();
+
+		StringBuilder b = new StringBuilder();
+		for (int i = 0; i < LightExecutor.MAX_PIPELINE_DEPTH; i++)
+			b.append(LightGatewaySim.REPLY_OK).append(END);
+		acks = b.toString().getBytes(ASCII);
+		fullstate = ("on,color,0xff8000,42" + END).getBytes(ASCII);
+		color = ("0x12abef" + END).getBytes(ASCII);
+	}
+
+	@Benchmark
+	public int decodeAcks() {
+		int n = 0;
+		decoder.buffer().put(acks);
+		while (decoder.nextFrame()) {
+			if (! decoder.isError())
+				n++;
+		}
+		return n;
+	}
+
+	@Benchmark
+	public LightState decodeState() {
+		decoder.buffer().put(fullstate);
+		while (decoder.nextFrame())
+			decoder.parseState(state);
+		return state;
+	}
+
+	@Benchmark
+	public int decodeColor() {
+		int c = LightReplyDecoder.INVALID_COLOR;
+		decoder.buffer().put(color);
+		while (decoder.nextFrame())
+			c = decoder.parseColor();
+		return c;
+	}
+}
@@ -0,0 +1,130 @@
+package com.larswerkman.holocolorpicker;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * Angle/color conversions of the picker, HueTable against the computation it replaced:
+ * the interpolation of calculateColor and Color.colorToHSV with its float[] in colorToAngle.
+ * Both run on every touch event.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HueTableBench {
+	static final float TWO_PI = (float) (2 * Math.PI);
+
+	int i;
+
+	// walks the whole wheel, so that no branch is always taken
+	float nextAngle() {
+		i = (i + 1) % 997;
+		return -TWO_PI * i / 997;
+	}
+
+	int nextColor() {
+		i = (i + 1) % 997;
+		return 0xff000000 | (i * 0x1f3b5d);
+	}
+
+	@Benchmark
+	public int angleToColorTable() {
+		return HueTable.angleToColor(nextAngle());
+	}
+
+	@Benchmark
+	public int angleToColorInterpolated() {
+		return calculateColor(nextAngle());
+	}
+
+	@Benchmark
+	public float colorToAngleTable() {
+		return HueTable.colorToAngle(nextColor());
+	}
+
+	@Benchmark
+	public float colorToAngleHSV() {
+		return colorToAngle(nextColor());
+	}
+
+	private static int ave(int s, int d, float p) {
+		return s + Math.round(p * (d - s));
+	}
+
+	// ColorPicker.calculateColor before HueTable
+	static int calculateColor(float angle) {
+		final int[] colors = HueTable.COLORS;
+		float unit = (float) (angle / (2 * Math.PI));
+		if (unit < 0) {
+			unit += 1;
+		}
+
+		if (unit <= 0) {
+			return colors[0];
+		}
+		if (unit >= 1) {
+			return colors[colors.length - 1];
+		}
+
+		float p = unit * (colors.length - 1);
+		int i = (int) p;
+		p -= i;
+
+		int c0 = colors[i];
+		int c1 = colors[i + 1];
+		int a = ave(c0 >>> 24, c1 >>> 24, p);
+		int r = ave((c0 >> 16) & 0xff, (c1 >> 16) & 0xff, p);
+		int g = ave((c0 >> 8) & 0xff, (c1 >> 8) & 0xff, p);
+		int b = ave(c0 & 0xff, c1 & 0xff, p);
+
+		return (a << 24) | (r << 16) | (g << 8) | b;
+	}
+
+	// ColorPicker.colorToAngle before HueTable
+	static float colorToAngle(int color) {
+		float[] colors = new float[3];
+		colorToHSV(color, colors);
+
+		return (float) Math.toRadians(-colors[0]);
+	}
+
+	// Color.colorToHSV as Android computes it, in floats
+	static void colorToHSV(int color, float[] hsv) {
+		final float r = ((color >> 16) & 0xff) / 255f;
+		final float g = ((color >> 8) & 0xff) / 255f;
+		final float b = (color & 0xff) / 255f;
+		final float max = Math.max(r, Math.max(g, b));
+		final float d = max - Math.min(r, Math.min(g, b));
+		float h;
+
+		if (d == 0) {
+			h = 0;
+		} else if (r == max) {
+			h = (g - b) / d;
+		} else if (g == max) {
+			h = 2 + (b - r) / d;
+		} else {
+			h = 4 + (r - g) / d;
+		}
+
+		h *= 60;
+		if (h < 0) {
+			h += 360;
+		}
+		hsv[0] = h;
+		hsv[1] = (max == 0) ? 0 : d / max;
+		hsv[2] = max;
+	}
+}
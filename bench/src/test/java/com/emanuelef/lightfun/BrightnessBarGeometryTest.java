@@ -0,0 +1,70 @@
+package com.emanuelef.lightfun;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+
+import org.junit.Test;
+
+public class BrightnessBarGeometryTest {
+	static final int ROUNDS = 100000;
+
+	// bar of the warm light: 0-100 by 10, the thumb is 40 pixels wide
+	static final int MIN = 0, MAX = 100, PIECE = 10;
+	static final float HALF = 20, LEFT = 20, RIGHT = 620, PADDING = 0;
+
+	static long allocated() {
+		return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+				.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+
+	@Test
+	public void roundsToIntervals() {
+		assertEquals(0, BrightnessBarGeometry.discrete(9, PIECE, MIN, MAX));
+		assertEquals(50, BrightnessBarGeometry.discrete(55, PIECE, MIN, MAX));
+		assertEquals(100, BrightnessBarGeometry.discrete(130, PIECE, MIN, MAX));
+		assertEquals(20, BrightnessBarGeometry.discrete(5, PIECE, 20, MAX));
+	}
+
+	@Test
+	public void clampsTouchesOutsideTrack() {
+		assertEquals(MIN, BrightnessBarGeometry.cursorToValue(LEFT - 5, LEFT, RIGHT, HALF, PIECE, MIN, MAX));
+		assertEquals(MAX, BrightnessBarGeometry.cursorToValue(RIGHT + 5, LEFT, RIGHT, HALF, PIECE, MIN, MAX));
+	}
+
+	// touching the center of the thumb keeps its value
+	@Test
+	public void touchesThumbAtItsValue() {
+		for (int v = MIN; v <= MAX; v += PIECE) {
+			final float cursor = BrightnessBarGeometry.valueToCursor(v, MIN, MAX, PADDING, RIGHT - LEFT);
+			assertEquals("value " + v, v,
+					BrightnessBarGeometry.cursorToValue(cursor + HALF + 0.5f, LEFT, RIGHT, HALF, PIECE, MIN, MAX));
+		}
+	}
+
+	/* a drag must not make garbage. The sums are checked, so that the JIT cannot drop
+	 * the loop.
+	 */
+	@Test
+	public void allocatesNothingPerTouch() {
+		final long expected = dragAll(ROUNDS);
+
+		final long start = allocated();
+		final long sum = dragAll(ROUNDS);
+		final long bytes = allocated() - start;
+
+		assertEquals(expected, sum);
+		assertTrue(bytes + " bytes allocated by " + ROUNDS + " touches", bytes < ROUNDS / 10);
+	}
+
+	// the path of a touch: the new value and the thumb redraw
+	private static long dragAll(int rounds) {
+		long sum = 0;
+		for (int i = 0; i < rounds; i++) {
+			final int v = BrightnessBarGeometry.cursorToValue(i % 640, LEFT, RIGHT, HALF, PIECE, MIN, MAX);
+			sum += v + (long) BrightnessBarGeometry.valueToCursor(v, MIN, MAX, PADDING, RIGHT - LEFT);
+		}
+		return sum;
+	}
+}
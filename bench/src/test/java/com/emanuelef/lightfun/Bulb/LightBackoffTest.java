@@ -0,0 +1,48 @@
+package com.emanuelef.lightfun.Bulb;
+
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class LightBackoffTest {
+	final LightBackoff backoff = new LightBackoff();
+
+	// each delay is in [current / 2, current), current doubles up to MAX_MILLIS
+	@Test
+	public void growsUpToMax() {
+		long current = LightBackoff.MIN_MILLIS;
+
+		for (int i = 0; i < 20; i++) {
+			final long delay = backoff.nextDelay();
+			assertTrue("delay " + delay + " at " + current, delay >= current / 2 && delay <= current);
+			current = Math.min(current * 2, LightBackoff.MAX_MILLIS);
+		}
+		assertTrue(backoff.nextDelay() >= LightBackoff.MAX_MILLIS / 2);
+	}
+
+	@Test
+	public void resetsToMin() {
+		for (int i = 0; i < 10; i++)
+			backoff.nextDelay();
+
+		backoff.reset();
+		assertTrue(backoff.nextDelay() <= LightBackoff.MIN_MILLIS);
+		assertTrue(backoff.nextDelay() <= 2 * LightBackoff.MIN_MILLIS);
+	}
+
+	// attempts of many clients are spread
+	@Test
+	public void jittersDelays() {
+		for (int i = 0; i < 5; i++)
+			backoff.nextDelay();
+
+		long min = Long.MAX_VALUE, max = 0;
+		for (int i = 0; i < 100; i++) {
+			backoff.current = 8000;
+			final long delay = backoff.nextDelay();
+			min = Math.min(min, delay);
+			max = Math.max(max, delay);
+		}
+		assertTrue("spread " + min + "-" + max, max - min > 1000);
+	}
+}
@@ -0,0 +1,102 @@
+package com.emanuelef.lightfun.Bulb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+import org.junit.Test;
+
+import com.emanuelef.lightfun.Bulb.LightCommands.ColorCommand;
+import com.emanuelef.lightfun.Bulb.LightCommands.LightCommand;
+import com.emanuelef.lightfun.Bulb.LightController.LightState;
+
+public class LightCommandEncoderTest {
+	static final int ROUNDS = 100000;
+	static final Charset ASCII = Charset.forName("US-ASCII");
+
+	final LightCommandEncoder encoder = new LightCommandEncoder();
+
+	static String string(ByteBuffer buf) {
+		byte[] data = new byte[buf.remaining()];
+		buf.duplicate().get(data);
+		return new String(data, ASCII);
+	}
+
+	// bytes allocated by this thread so far
+	static long allocated() {
+		return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+				.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+
+	@Test
+	public void encodesRequests() {
+		assertEquals("/rgb?0xff8001$", string(encoder.encodeColor(0xffff8001)));
+		assertEquals("/warm?0$", string(encoder.encodeWarm(0)));
+		assertEquals("/warm?100$", string(encoder.encodeWarm(100)));
+		assertEquals("/state$", string(encoder.encode(LightCommandEncoder.QRY_FULLSTATE)));
+	}
+
+	@Test
+	public void encodesEffects() {
+		LightEffect effect = new LightEffect(true)
+				.add(0xffff0000, 500, LightEasing.EASE_IN)
+				.add(0xff0000ff, 1500, LightEasing.LINEAR);
+		assertEquals("/effect?1,ff0000i500,0000ffl1500$", string(encoder.encodeEffect(effect)));
+	}
+
+	/* color streaming must not make garbage, neither any other request.
+	 * A few hundred bytes are allocated by the JIT and the measure itself, an object per
+	 * request would be at least 16 bytes each.
+	 */
+	@Test
+	public void allocatesNothingPerCommand() {
+		LightEffect effect = new LightEffect(false);
+		for (int i = 0; i < LightEffect.MAX_KEYFRAMES; i++)
+			effect.add(0xff000000 | (i * 0x1f3b5d), 250 * i, LightEasing.EASE_OUT);
+
+		// class loading and lazy initializations are not counted
+		encodeAll(effect, 1000);
+
+		final long start = allocated();
+		encodeAll(effect, ROUNDS);
+		final long bytes = allocated() - start;
+
+		assertTrue(bytes + " bytes allocated by " + (4 * ROUNDS) + " requests", bytes < 4 * ROUNDS / 10);
+	}
+
+	private void encodeAll(LightEffect effect, int rounds) {
+		for (int i = 0; i < rounds; i++) {
+			encoder.encodeColor(0xff000000 | i);
+			encoder.encodeWarm(i % 100);
+			encoder.encodeEffect(effect);
+			encoder.encode(LightCommandEncoder.KEEPALIVE);
+		}
+	}
+
+	// a streamed frame, from the desired state write to the encoded request, makes no garbage
+	@Test
+	public void allocatesNothingPerFrame() {
+		LightDesiredState desired = new LightDesiredState(new LightStats());
+		LightState sent = new LightState();
+
+		streamAll(desired, sent, 1000);
+
+		final long start = allocated();
+		streamAll(desired, sent, ROUNDS);
+		final long bytes = allocated() - start;
+
+		assertTrue(bytes + " bytes allocated by " + ROUNDS + " frames", bytes < ROUNDS / 10);
+	}
+
+	private void streamAll(LightDesiredState desired, LightState sent, int rounds) {
+		for (int i = 0; i < rounds; i++) {
+			desired.setColor(0xff000000 | i);
+			LightCommand cmd = desired.fetchChange(1, sent);
+			assertEquals(0xff000000 | i, ((ColorCommand) cmd).color);
+			encoder.encodeColor(((ColorCommand) cmd).color);
+		}
+	}
+}
@@ -0,0 +1,53 @@
+package com.emanuelef.lightfun.Bulb;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/*
+ * Arguments are checked on the caller thread, a bad one must not reach the engine.
+ */
+public class LightControllerTest {
+	LightEngine engine;
+	LightController controller;
+
+	// the engine is not run, nothing is sent
+	@Before
+	public void setup() throws Exception {
+		engine = new LightEngine();
+		controller = new LightController(null, null, null, new LightLoopbackTransport(), engine);
+	}
+
+	@After
+	public void teardown() {
+		controller.finish();
+		engine.close();
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsNullEasing() {
+		controller.setColor(0xffff0000, 1000, null);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsNullKeyframeEasing() {
+		new LightEffect(false).add(0xffff0000, 1000, null);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsEmptyEffects() {
+		controller.setEffect(new LightEffect(true));
+	}
+
+	// the engine encodes the effect later, the caller may change it meanwhile
+	@Test
+	public void copiesEffects() {
+		LightEffect effect = new LightEffect(true).add(0xffff0000, 1000, LightEasing.LINEAR);
+		controller.setEffect(effect);
+		effect.add(0xff00ff00, 1000, LightEasing.LINEAR);
+
+		assertEquals(1, controller.desired.effect.getKeyframeCount());
+	}
+}
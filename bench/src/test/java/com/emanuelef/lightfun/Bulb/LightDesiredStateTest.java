@@ -0,0 +1,144 @@
+package com.emanuelef.lightfun.Bulb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+import com.emanuelef.lightfun.Bulb.LightCommands.ColorCommand;
+import com.emanuelef.lightfun.Bulb.LightCommands.LightCommand;
+import com.emanuelef.lightfun.Bulb.LightCommands.Modes;
+import com.emanuelef.lightfun.Bulb.LightCommands.OnOffCommand;
+import com.emanuelef.lightfun.Bulb.LightCommands.Types;
+import com.emanuelef.lightfun.Bulb.LightCommands.WarmCommand;
+import com.emanuelef.lightfun.Bulb.LightController.LightState;
+import com.emanuelef.lightfun.Bulb.LightStats.Counters;
+
+public class LightDesiredStateTest {
+	final LightStats stats = new LightStats();
+	final LightDesiredState desired = new LightDesiredState(stats);
+	final LightState sent = new LightState();		// mode null: nothing known
+
+	long counter(Types type, Counters counter) {
+		return stats.snapshot().getCounter(type, counter);
+	}
+
+	@Test
+	public void coalescesWrites() {
+		desired.setColor(0xff000001);
+		desired.setColor(0xff000002);
+		desired.setColor(0xff000003);
+
+		LightCommand cmd = desired.fetchChange(-1, sent);
+		assertEquals(Types.SET_COLOR, cmd.getType());
+		assertEquals(0xff000003, ((ColorCommand) cmd).color);
+		assertNull(desired.fetchChange(-1, sent));
+		assertEquals(2, counter(Types.SET_COLOR, Counters.COALESCED));
+	}
+
+	// the look is a single field, the last write of any kind wins
+	@Test
+	public void dropsOverwrittenLooks() {
+		desired.setColor(0xff000001);
+		desired.setWarm(40);
+
+		LightCommand cmd = desired.fetchChange(-1, sent);
+		assertEquals(Types.SET_WARM, cmd.getType());
+		assertEquals(40, ((WarmCommand) cmd).brightness);
+		assertNull(desired.fetchChange(-1, sent));
+		assertEquals(1, counter(Types.SET_COLOR, Counters.DROPPED));
+	}
+
+	// power and look are independent, the oldest change is fetched first
+	@Test
+	public void fetchesOldestFieldFirst() throws Exception {
+		desired.setOn(true);
+		Thread.sleep(2);
+		desired.setColor(0xff000001);
+
+		assertEquals(Types.SET_ONOFF, desired.fetchChange(-1, sent).getType());
+		assertEquals(Types.SET_COLOR, desired.fetchChange(-1, sent).getType());
+		assertNull(desired.fetchChange(-1, sent));
+	}
+
+	// values the gateway already has are cleaned without sending anything
+	@Test
+	public void cleansUnchangedValues() {
+		sent.mode = Modes.MODE_COLOR;
+		sent.color = 0xff102030;
+
+		desired.setColor(0xff102030);
+		desired.setOn(true);
+		assertNull(desired.fetchChange(1, sent));
+		assertEquals(1, counter(Types.SET_COLOR, Counters.UNCHANGED));
+		assertEquals(1, counter(Types.SET_ONOFF, Counters.UNCHANGED));
+
+		// unknown values are always sent
+		desired.setOn(true);
+		assertEquals(Types.SET_ONOFF, desired.fetchChange(-1, sent).getType());
+	}
+
+	@Test
+	public void cleansCloseColorsWithThreshold() {
+		sent.mode = Modes.MODE_COLOR;
+		sent.color = 0xff808080;
+		desired.setColorThreshold(2.3);
+
+		desired.setColor(0xff808081);
+		assertNull(desired.fetchChange(1, sent));
+
+		desired.setColor(0xff80ff80);
+		assertEquals(0xff80ff80, ((ColorCommand) desired.fetchChange(1, sent)).color);
+	}
+
+	@Test
+	public void retriesLostChanges() {
+		desired.setOn(false);
+		LightCommand cmd = desired.fetchChange(-1, sent);
+		assertNull(desired.fetchChange(-1, sent));
+
+		desired.retry(cmd);
+		cmd = desired.fetchChange(-1, sent);
+		assertEquals(false, ((OnOffCommand) cmd).on);
+		assertEquals(1, counter(Types.SET_ONOFF, Counters.RETRIED));
+	}
+
+	// a newer write is what has to be sent, the lost older one is not retried
+	@Test
+	public void newerWriteWinsOverRetry() {
+		desired.setColor(0xff000001);
+		LightCommand cmd = desired.fetchChange(-1, sent);
+
+		desired.setColor(0xff000002);
+		desired.retry(cmd);
+		assertEquals(0, counter(Types.SET_COLOR, Counters.RETRIED));
+		assertEquals(0xff000002, ((ColorCommand) desired.fetchChange(-1, sent)).color);
+		assertNull(desired.fetchChange(-1, sent));
+	}
+
+	@Test
+	public void holdsRetriesUntilTheirTime() {
+		desired.setColor(0xff000001);
+		LightCommand cmd = desired.fetchChange(-1, sent);
+
+		final long notbefore = LightClock.millis() + 60000;
+		desired.retry(cmd, notbefore);
+		assertNull(desired.fetchChange(-1, sent));
+		assertEquals(notbefore, desired.nextRetry());
+
+		// a newer write is not held
+		desired.setColor(0xff000002);
+		assertEquals(Long.MAX_VALUE, desired.nextRetry());
+		assertEquals(0xff000002, ((ColorCommand) desired.fetchChange(-1, sent)).color);
+	}
+
+	// the fetched command belongs to the register, nothing is allocated per fetch
+	@Test
+	public void reusesFetchedCommands() {
+		desired.setColor(0xff000001);
+		LightCommand first = desired.fetchChange(-1, sent);
+		desired.setColor(0xff000002);
+		assertSame(first, desired.fetchChange(-1, sent));
+	}
+}
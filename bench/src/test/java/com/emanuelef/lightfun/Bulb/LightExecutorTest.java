@@ -0,0 +1,193 @@
+package com.emanuelef.lightfun.Bulb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.channels.Selector;
+import java.nio.channels.UnresolvedAddressException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/*
+ * The executor against a ScriptedTransport, with the engine not running: tick, read
+ * and flush are called by the test.
+ */
+public class LightExecutorTest {
+	LightEngine engine;
+	LightDesiredState desired;
+	ScriptedTransport transport;
+	LightExecutor executor;
+
+	@Before
+	public void setup() throws Exception {
+		engine = new LightEngine();
+		desired = new LightDesiredState(new LightStats());
+		transport = new ScriptedTransport();
+		executor = new LightExecutor(engine, desired, null, null, transport);
+		desired.setOnChangeListener(executor);
+	}
+
+	@After
+	public void teardown() {
+		executor.abort();
+		engine.close();
+	}
+
+	// connects and sends the pending changes
+	void tick() {
+		executor.tick(LightClock.millis());
+	}
+
+	@Test
+	public void sendsChanges() throws Exception {
+		desired.setColor(0xff102030);
+		tick();
+		assertTrue(executor.isConnected());
+		assertEquals("/rgb?0x102030$", transport.takeWritten());
+
+		transport.reply("OK$");
+		executor.read();
+		assertTrue(executor.isConnected());
+		assertEquals(0, executor.incount);
+	}
+
+	// a reply without a request is a protocol error, the connection is dropped and made again
+	@Test
+	public void dropsConnectionOnUnexpectedReply() throws Exception {
+		tick();
+		assertTrue(executor.isConnected());
+
+		transport.reply("OK$");
+		executor.read();
+		assertFalse(executor.isConnected());
+		assertEquals(1, transport.closes);
+		assertEquals(0, executor.incount);
+
+		// reconnected after the backoff, the ring still works
+		executor.retrytime = 0;
+		desired.setColor(0xff405060);
+		tick();
+		assertTrue(executor.isConnected());
+		assertEquals(2, transport.opens);
+		assertEquals("/rgb?0x405060$", transport.takeWritten());
+	}
+
+	// a duplicated reply is as unexpected, also after the expected ones
+	@Test
+	public void dropsConnectionOnDuplicatedReply() throws Exception {
+		desired.setColor(0xff102030);
+		tick();
+		transport.takeWritten();
+
+		transport.reply("OK$OK$");
+		executor.read();
+		assertFalse(executor.isConnected());
+		assertEquals(0, executor.incount);
+	}
+
+	// the bulb may change while disconnected, an acknowledged value is sent again
+	@Test
+	public void forgetsAckedStateOnDisconnection() throws Exception {
+		desired.setColor(0xff102030);
+		tick();
+		transport.reply("OK$");
+		executor.read();
+		transport.takeWritten();
+
+		// not sent, the gateway has it
+		desired.setColor(0xff102030);
+		tick();
+		assertEquals("", transport.takeWritten());
+
+		executor.disconnect();
+		executor.retrytime = 0;
+		desired.setColor(0xff102030);
+		tick();
+		assertTrue(executor.isConnected());
+		assertEquals("/rgb?0x102030$", transport.takeWritten());
+	}
+
+	// an unchecked open failure is a connection failure, retried after the backoff
+	@Test
+	public void retriesFailedOpens() throws Exception {
+		executor.abort();
+		transport = new ScriptedTransport() {
+			@Override
+			public boolean open(Selector selector, Object attachment) {
+				if (++opens == 1)
+					throw new UnresolvedAddressException();
+				return true;
+			}
+		};
+		executor = new LightExecutor(engine, desired, null, null, transport);
+
+		desired.setColor(0xff102030);
+		tick();
+		assertFalse(executor.isConnected());
+		assertFalse(executor.isFinished());
+		assertTrue(executor.retrytime > LightClock.millis());
+
+		executor.retrytime = 0;
+		tick();
+		assertTrue(executor.isConnected());
+		assertEquals("/rgb?0x102030$", transport.takeWritten());
+	}
+
+	// acknowledges every request, without allocating
+	static class AckingTransport extends ScriptedTransport {
+		static final byte[] ACK = "OK$".getBytes(ASCII);
+		int acks = 0;
+
+		@Override
+		public int read(ByteBuffer dst) {
+			int n = 0;
+			for (; acks > 0 && dst.remaining() >= ACK.length; acks--, n += ACK.length)
+				dst.put(ACK);
+			return n;
+		}
+
+		@Override
+		public int write(ByteBuffer src) {
+			int n = src.remaining();
+			while (src.hasRemaining()) {
+				if (src.get() == '$')
+					acks++;
+			}
+			return n;
+		}
+	}
+
+	/* a frame sent and acknowledged, through the register, the inflight ring and the
+	 * encoder and decoder, makes no garbage
+	 */
+	@Test
+	public void allocatesNothingPerFrame() throws Exception {
+		executor.abort();
+		executor = new LightExecutor(engine, desired, null, null, new AckingTransport());
+		desired.setOnChangeListener(null);
+
+		streamAll(1000);
+
+		final long start = ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+				.getThreadAllocatedBytes(Thread.currentThread().getId());
+		streamAll(100000);
+		final long bytes = ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+				.getThreadAllocatedBytes(Thread.currentThread().getId()) - start;
+
+		assertTrue(bytes + " bytes allocated by 100000 frames", bytes < 100000 / 10);
+	}
+
+	private void streamAll(int rounds) throws Exception {
+		for (int i = 0; i < rounds; i++) {
+			desired.setColor(0xff000000 | i);
+			tick();
+			executor.read();
+			assertEquals(0, executor.incount);
+		}
+	}
+}
@@ -0,0 +1,90 @@
+package com.emanuelef.lightfun.Bulb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Selector;
+import java.nio.charset.Charset;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/*
+ * The test thread plays the engine: it writes the requests and reads the replies.
+ */
+public class LightLoopbackTransportTest {
+	private static final Charset ASCII = Charset.forName("US-ASCII");
+
+	Selector selector;
+	LightLoopbackTransport transport;
+	final ByteBuffer buf = ByteBuffer.allocate(4096);
+
+	@Before
+	public void setup() throws IOException {
+		selector = Selector.open();
+		transport = new LightLoopbackTransport();
+		transport.open(selector, null);
+	}
+
+	@After
+	public void teardown() throws IOException {
+		transport.close();
+		selector.close();
+	}
+
+	void request(String req) throws IOException {
+		final ByteBuffer src = ByteBuffer.wrap((req + LightExecutor.SRVRPL_END).getBytes(ASCII));
+		assertEquals(src.remaining(), transport.write(src));
+	}
+
+	// reads until count replies have arrived
+	String[] replies(int count) throws Exception {
+		final StringBuilder received = new StringBuilder();
+		int ends = 0;
+
+		while (ends < count) {
+			buf.clear();
+			if (transport.read(buf) == 0) {
+				Thread.sleep(1);
+				continue;
+			}
+			buf.flip();
+			while (buf.hasRemaining()) {
+				final char c = (char) buf.get();
+				if (c == LightExecutor.SRVRPL_END.charAt(0))
+					ends++;
+				received.append(c);
+			}
+		}
+		return received.toString().split("\\" + LightExecutor.SRVRPL_END);
+	}
+
+	// a reply is never delivered before the ones of older requests
+	@Test(timeout = 5000)
+	public void keepsOrderWhenLatencyDrops() throws Exception {
+		transport.setLatency(200);
+		request(LightExecutor.SRVQRY_STATE);
+		transport.setLatency(0);
+		request(LightExecutor.SRVCMD_KEEPALIVE);
+
+		final String[] replies = replies(2);
+		assertTrue(replies[0], ! replies[0].equals(LightGatewaySim.REPLY_ALIVE));
+		assertEquals(LightGatewaySim.REPLY_ALIVE, replies[1]);
+	}
+
+	/* more replies than the pipe holds: the write must not block on the pipe, as the
+	 * thread writing is also the one reading it
+	 */
+	@Test(timeout = 10000)
+	public void neverBlocksTheWriter() throws Exception {
+		final int count = 20000;
+
+		for (int i = 0; i < count; i++)
+			request(LightExecutor.SRVQRY_FULLSTATE);
+		assertEquals(count, replies(count).length);
+		assertEquals(count, transport.getRequestCount());
+	}
+}
@@ -0,0 +1,65 @@
+package com.emanuelef.lightfun.Bulb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class LightQuantizerTest {
+	// the device level as the gateway computes it, see controller_v2.js syncToLumen
+	static int deviceLevel(int value, int max) {
+		return value * LightQuantizer.DEVICE_MAX / max;
+	}
+
+	// a quantized value keeps its device level, and is the smallest one having it
+	@Test
+	public void quantizesChannelsToSmallestOfLevel() {
+		for (int v = 0; v <= 255; v++) {
+			final int q = LightQuantizer.quantizeChannel(v);
+			assertEquals("value " + v, deviceLevel(v, 255), deviceLevel(q, 255));
+			assertTrue("value " + v, q <= v);
+			if (q > 0)
+				assertTrue("value " + v, deviceLevel(q - 1, 255) < deviceLevel(q, 255));
+		}
+	}
+
+	// quantizing again does not change the value, so echoes are stable
+	@Test
+	public void isIdempotent() {
+		for (int v = 0; v <= 255; v++) {
+			final int q = LightQuantizer.quantizeChannel(v);
+			assertEquals(q, LightQuantizer.quantizeChannel(q));
+		}
+		for (int b = 0; b <= 100; b++) {
+			final int q = LightQuantizer.quantizeWarm(b);
+			assertEquals(q, LightQuantizer.quantizeWarm(q));
+		}
+	}
+
+	@Test
+	public void quantizesColorsPerChannelOpaque() {
+		final int q = LightQuantizer.quantizeColor(0x00ff8001);
+		assertEquals(0xff000000, q & 0xff000000);
+		assertEquals(LightQuantizer.quantizeChannel(0xff), LightColor.red(q));
+		assertEquals(LightQuantizer.quantizeChannel(0x80), LightColor.green(q));
+		assertEquals(LightQuantizer.quantizeChannel(0x01), LightColor.blue(q));
+		assertEquals(0xff000000, LightQuantizer.quantizeColor(0xff000002));
+	}
+
+	@Test
+	public void clampsWarmLevels() {
+		assertEquals(0, LightQuantizer.quantizeWarm(-5));
+		assertEquals(100, LightQuantizer.quantizeWarm(100));
+		assertEquals(100, LightQuantizer.quantizeWarm(150));
+		for (int b = 0; b <= 100; b++)
+			assertEquals("level " + b, deviceLevel(b, 100), deviceLevel(LightQuantizer.quantizeWarm(b), 100));
+	}
+
+	@Test
+	public void measuresColorDifferences() {
+		assertEquals(0, LightQuantizer.deltaE(0xff123456, 0x00123456), 0);
+		assertEquals(100, LightQuantizer.deltaE(0xff000000, 0xffffffff), 0.1);
+		assertTrue(LightQuantizer.deltaE(0xff808080, 0xff808081) < 2.3);
+		assertTrue(LightQuantizer.deltaE(0xff808080, 0xff80ff80) > 2.3);
+	}
+}
@@ -0,0 +1,122 @@
+package com.emanuelef.lightfun.Bulb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.Charset;
+
+import org.junit.Test;
+
+import com.emanuelef.lightfun.Bulb.LightCommands.Modes;
+import com.emanuelef.lightfun.Bulb.LightController.LightState;
+
+public class LightReplyDecoderTest {
+	static final Charset ASCII = Charset.forName("US-ASCII");
+
+	final LightReplyDecoder decoder = new LightReplyDecoder();
+
+	// as a read of data
+	void feed(String data) {
+		decoder.buffer().put(data.getBytes(ASCII));
+	}
+
+	@Test
+	public void decodesFramesSplitAcrossReads() {
+		final String reply = "on,color,0xff8000,42$";
+		final LightState state = new LightState();
+
+		for (int i = 0; i < reply.length() - 1; i++) {
+			feed(reply.substring(i, i + 1));
+			assertFalse(decoder.nextFrame());
+
+			// the partial frame is kept at the buffer start
+			assertEquals(i + 1, decoder.buffer().position());
+		}
+
+		feed("$");
+		assertTrue(decoder.nextFrame());
+		assertTrue(decoder.parseState(state));
+		assertTrue(state.ison);
+		assertEquals(Modes.MODE_COLOR, state.mode);
+		assertEquals(0xffff8000, state.color);
+		assertEquals(42, state.brightness);
+		assertFalse(decoder.nextFrame());
+		assertEquals(0, decoder.buffer().position());
+	}
+
+	@Test
+	public void decodesCoalescedFrames() {
+		feed("OK$0x12abef$off$BAD REQUEST$OFFLINE$");
+
+		assertTrue(decoder.nextFrame());
+		assertEquals("OK", decoder.frameString());
+		assertFalse(decoder.isError());
+
+		assertTrue(decoder.nextFrame());
+		assertEquals(0xff12abef, decoder.parseColor());
+
+		assertTrue(decoder.nextFrame());
+		assertEquals(0, decoder.parseOnOff());
+
+		assertTrue(decoder.nextFrame());
+		assertTrue(decoder.isError());
+		assertFalse(decoder.isOffline());
+
+		assertTrue(decoder.nextFrame());
+		assertTrue(decoder.isOffline());
+
+		assertFalse(decoder.nextFrame());
+		assertEquals(0, decoder.buffer().position());
+	}
+
+	// the complete frames are consumed, the trailing partial one is moved to the start
+	@Test
+	public void compactsPartialFrame() {
+		feed("OK$OK$0x12");
+		assertTrue(decoder.nextFrame());
+		assertTrue(decoder.nextFrame());
+		assertFalse(decoder.nextFrame());
+		assertEquals(4, decoder.buffer().position());
+
+		feed("abef$wh");
+		assertTrue(decoder.nextFrame());
+		assertEquals(0xff12abef, decoder.parseColor());
+		assertFalse(decoder.nextFrame());
+		assertEquals(2, decoder.buffer().position());
+
+		feed("ite$");
+		assertTrue(decoder.nextFrame());
+		assertEquals("white", decoder.frameString());
+	}
+
+	// a frame longer than the buffer can never complete
+	@Test
+	public void fillsUpOnLongFrames() {
+		StringBuilder b = new StringBuilder();
+		for (int i = 0; i < LightReplyDecoder.BUFFER_SIZE; i++)
+			b.append('x');
+		feed(b.toString());
+		assertFalse(decoder.nextFrame());
+		assertTrue(decoder.isFull());
+
+		decoder.reset();
+		assertFalse(decoder.isFull());
+		assertEquals(0, decoder.buffer().position());
+	}
+
+	@Test
+	public void rejectsMalformedReplies() {
+		final LightState state = new LightState();
+
+		feed("0xzz0000$maybe$on,purple,0xff0000,10$on,color,0xff0000$");
+		assertTrue(decoder.nextFrame());
+		assertEquals(LightReplyDecoder.INVALID_COLOR, decoder.parseColor());
+		assertTrue(decoder.nextFrame());
+		assertEquals(-1, decoder.parseOnOff());
+		assertTrue(decoder.nextFrame());
+		assertFalse(decoder.parseState(state));
+		assertTrue(decoder.nextFrame());
+		assertFalse(decoder.parseState(state));
+	}
+}
@@ -0,0 +1,68 @@
+package com.emanuelef.lightfun.Bulb;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.Selector;
+import java.nio.charset.Charset;
+
+/*
+ * A transport driven by the test: it connects at once, keeps what is written and
+ * returns the replies queued by reply(). Nothing is registered to the selector, the
+ * executor methods are called directly.
+ */
+class ScriptedTransport implements LightTransport {
+	static final Charset ASCII = Charset.forName("US-ASCII");
+
+	final StringBuilder written = new StringBuilder();
+	final ByteBuffer replies = ByteBuffer.allocate(1024);
+	int opens = 0;
+	int closes = 0;
+
+	// data returned by the next reads
+	void reply(String data) {
+		replies.put(data.getBytes(ASCII));
+	}
+
+	// the written data so far, which is then cleared
+	String takeWritten() {
+		String data = written.toString();
+		written.setLength(0);
+		return data;
+	}
+
+	@Override
+	public boolean open(Selector selector, Object attachment) {
+		opens++;
+		return true;
+	}
+
+	@Override
+	public boolean finishConnect() {
+		return true;
+	}
+
+	@Override
+	public int read(ByteBuffer dst) {
+		replies.flip();
+		int n = Math.min(replies.remaining(), dst.remaining());
+		for (int i = 0; i < n; i++)
+			dst.put(replies.get());
+		replies.compact();
+		return n;
+	}
+
+	@Override
+	public int write(ByteBuffer src) {
+		int n = src.remaining();
+		while (src.hasRemaining())
+			written.append((char) src.get());
+		return n;
+	}
+
+	@Override
+	public void setWriteInterest(boolean on) {}
+
+	@Override
+	public void close() {
+		closes++;
+	}
+}
@@ -0,0 +1,100 @@
+package com.larswerkman.holocolorpicker;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/*
+ * Pointer placement and touch handling of the picker, run on every draw and touch event.
+ */
+public class ColorWheelGeometryTest {
+	static final int ROUNDS = 100000;
+	static final float TWO_PI = (float) (2 * Math.PI);
+	static final float RADIUS = 300;
+	static final float HALO = 36;
+
+	@Test
+	public void placesPointerOnWheel() {
+		final float[] pos = new float[2];
+
+		ColorWheelGeometry.pointerPosition(RADIUS, 0, pos);
+		assertEquals(RADIUS, pos[0], 1e-3);
+		assertEquals(0, pos[1], 1e-3);
+
+		ColorWheelGeometry.pointerPosition(RADIUS, -TWO_PI / 4, pos);
+		assertEquals(0, pos[0], 1e-3);
+		assertEquals(-RADIUS, pos[1], 1e-3);
+	}
+
+	// dragging the pointer by its center gives back its angle
+	@Test
+	public void dragsPointerToTouchAngle() {
+		final float[] pos = new float[2];
+
+		for (int i = 0; i < 359; i++) {
+			final float angle = (float) Math.toRadians(i - 179);
+			ColorWheelGeometry.pointerPosition(RADIUS, angle, pos);
+			assertTrue(ColorWheelGeometry.isOnPointer(pos[0], pos[1], pos, HALO));
+
+			final float slopX = 10, slopY = -5;
+			assertEquals("angle " + angle, angle,
+					ColorWheelGeometry.touchAngle(pos[0] + slopX, pos[1] + slopY, slopX, slopY), 1e-4);
+		}
+	}
+
+	@Test
+	public void hitsPointerHalo() {
+		final float[] pos = { RADIUS, 0 };
+
+		assertTrue(ColorWheelGeometry.isOnPointer(RADIUS + HALO, HALO, pos, HALO));
+		assertFalse(ColorWheelGeometry.isOnPointer(RADIUS + HALO + 1, 0, pos, HALO));
+		assertFalse(ColorWheelGeometry.isOnPointer(RADIUS, -HALO - 1, pos, HALO));
+	}
+
+	@Test
+	public void hitsWheelRing() {
+		assertTrue(ColorWheelGeometry.isOnWheel(RADIUS, 0, RADIUS, HALO));
+		assertTrue(ColorWheelGeometry.isOnWheel(0, -(RADIUS + HALO), RADIUS, HALO));
+		assertTrue(ColorWheelGeometry.isOnWheel(RADIUS - HALO, 0, RADIUS, HALO));
+		assertFalse(ColorWheelGeometry.isOnWheel(RADIUS + HALO + 1, 0, RADIUS, HALO));
+		assertFalse(ColorWheelGeometry.isOnWheel(0, RADIUS - HALO - 1, RADIUS, HALO));
+		assertFalse(ColorWheelGeometry.isOnWheel(0, 0, RADIUS, HALO));
+
+		// a halo wider than the wheel covers the center
+		assertTrue(ColorWheelGeometry.isOnWheel(0, 0, HALO, RADIUS));
+	}
+
+	/* a drag must not make garbage, see HueTableTest. The sums are checked, so that the
+	 * JIT cannot drop the loop.
+	 */
+	@Test
+	public void allocatesNothingPerTouch() {
+		final float[] pos = new float[2];
+		final int expected = dragAll(ROUNDS, pos);
+
+		final long start = HueTableTest.allocated();
+		final int sum = dragAll(ROUNDS, pos);
+		final long bytes = HueTableTest.allocated() - start;
+
+		assertEquals(expected, sum);
+		assertTrue(bytes + " bytes allocated by " + ROUNDS + " touches", bytes < ROUNDS / 10);
+	}
+
+	// the path of a touch: hit tests, the new angle, its color and the pointer redraw
+	private static int dragAll(int rounds, float[] pos) {
+		int sum = 0;
+		float angle = 0;
+		for (int i = 0; i < rounds; i++) {
+			final float x = (i % 701) - 350, y = (i % 499) - 250;
+
+			ColorWheelGeometry.pointerPosition(RADIUS, angle, pos);
+			if (ColorWheelGeometry.isOnPointer(x, y, pos, HALO) || ColorWheelGeometry.isOnWheel(x, y, RADIUS, HALO))
+				sum++;
+			angle = ColorWheelGeometry.touchAngle(x, y, 1, -1);
+			sum += HueTable.angleToColor(angle) + (int) pos[0] + (int) pos[1];
+		}
+		return sum;
+	}
+}
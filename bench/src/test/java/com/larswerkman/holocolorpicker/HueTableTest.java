@@ -0,0 +1,70 @@
+package com.larswerkman.holocolorpicker;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+
+import org.junit.Test;
+
+/*
+ * The picker converts between angle and color on every touch event and draw, these
+ * conversions are the part of those paths which runs on a plain JVM.
+ */
+public class HueTableTest {
+	static final int ROUNDS = 100000;
+	static final float TWO_PI = (float) (2 * Math.PI);
+
+	// bytes allocated by this thread so far
+	static long allocated() {
+		return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+				.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+
+	@Test
+	public void primaryColorsAngles() {
+		assertEquals(0xFFFF0000, HueTable.angleToColor(0));
+		assertEquals(0xFF0000FF, HueTable.angleToColor(TWO_PI / 3));
+		assertEquals(0xFF00FF00, HueTable.angleToColor(-TWO_PI / 3));
+		assertEquals(0, HueTable.colorToAngle(0xFFFF0000), 1e-6);
+		assertEquals(-TWO_PI / 3, HueTable.colorToAngle(0xFF00FF00), 1e-6);
+	}
+
+	@Test
+	public void roundTrip() {
+		for (int i = 0; i < HueTable.STEPS; i++) {
+			float angle = -TWO_PI * i / HueTable.STEPS;
+			float diff = HueTable.colorToAngle(HueTable.angleToColor(angle)) - angle;
+
+			// -2 PI and 0 are the same angle
+			if (diff > Math.PI)
+				diff -= TWO_PI;
+			assertEquals("angle " + angle, 0, diff, 0.01);
+		}
+	}
+
+	/* a drag must not make garbage. A few hundred bytes are allocated by the JIT and
+	 * the measure itself, an object per conversion would be at least 16 bytes each.
+	 * The sums are checked, so that the JIT cannot drop the conversions.
+	 */
+	@Test
+	public void allocatesNothingPerConversion() {
+		final int expected = convertAll(ROUNDS);
+
+		final long start = allocated();
+		final int sum = convertAll(ROUNDS);
+		final long bytes = allocated() - start;
+
+		assertEquals(expected, sum);
+		assertTrue(bytes + " bytes allocated by " + (2 * ROUNDS) + " conversions", bytes < 2 * ROUNDS / 10);
+	}
+
+	private static int convertAll(int rounds) {
+		int sum = 0;
+		for (int i = 0; i < rounds; i++) {
+			int color = HueTable.angleToColor(-TWO_PI * (i % 997) / 997);
+			sum += (int) HueTable.colorToAngle(color ^ i);
+		}
+		return sum;
+	}
+}
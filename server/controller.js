@@ -13,6 +13,8 @@ var Modes = {
     WHITE: 'white',
     DISCO: 'disco',
     COOL: 'cool',
+    SOFT: 'soft',
+    EFFECT: 'effect',
     // TODO add Warm mode support
 };
 
@@ -24,9 +26,18 @@ var Commands = {
     DISCO: 'disco',
     COOL: 'cool',
     SOFT: 'soft',
+    EFFECT: 'effect',       // value: {loop, keyframes: [{color, easing, duration}]}
     // TODO add Warm command
 };
 
+/* easing curves of the effect keyframes, p in [0, 1] */
+var Easings = {
+    l: function(p) { return p; },
+    i: function(p) { return p * p * p; },
+    o: function(p) { return 1 - (1-p) * (1-p) * (1-p); },
+    s: function(p) { return (p < 0.5) ? 4 * p * p * p : 1 - 4 * (1-p) * (1-p) * (1-p); },
+};
+
 var Controller = function () {
     // information variables
     this.mode = Modes.WHITE;
@@ -53,12 +64,15 @@ var Controller = function () {
     this._pending = null;               // .action, .value
     this._busy = true;                  // !_busy => _pending = null
     this._softstep = 0;
+    this._effect = null;                // Modes.EFFECT program
+    this._effectstep = 0;
 
     // interpolation stuff
     this._initial = [1.0, 1.0, 1.0];    // initial interpolation value
     this._target = [1.0, 1.0, 1.0];     // final interpolation value
     this._interpwait = false;
     this._progress = 0.0;
+    this._easing = Easings.l;
     this._timer = null;
 
     if (typeof noble.cancelConnect !== "function")
@@ -262,7 +276,7 @@ Controller.prototype._syncStatus = function(callback) {
         this._lumen.coolMode(callback);
     else if (this.mode === Modes.WHITE)
         this._lumen.white(this.white*99, callback);
-    else if (this.mode === Modes.COLOR || this.mode === Modes.SOFT)
+    else if (this.mode === Modes.COLOR || this.mode === Modes.SOFT || this.mode === Modes.EFFECT)
         this._lumen.color(this.color[0]*99, this.color[1]*99, this.color[2]*99, callback);
     else
         console.log("Unknown mode", this.mode);
@@ -301,7 +315,7 @@ Controller.prototype._onTimer = function() {
         // skip
         return;
 
-    var p = this._progress;
+    var p = this._easing(this._progress);
     this.color = [
         this._initial[0] * (1-p) + this._target[0] * p,
         this._initial[1] * (1-p) + this._target[1] * p,
@@ -314,17 +328,20 @@ Controller.prototype._onTimer = function() {
             // interpolation end
             if (this.mode === Modes.SOFT)
                 this._softmodeNextStep();
+            else if (this.mode === Modes.EFFECT && this._effectNextStep())
+                ;
             else
                 this._stopAnyWork();
     }.bind(this));
 };
 
-/* Modes.COLOR | Modes.SOFT */
-Controller.prototype._startInterpolationWork = function(target, step) {
+/* Modes.COLOR | Modes.SOFT | Modes.EFFECT */
+Controller.prototype._startInterpolationWork = function(target, step, easing) {
     this._progress = 0.0;
     this._initial = this.color;
     this._target = target;
     this._interpstep = step;
+    this._easing = easing || Easings.l;
 
     if (! this._timer)
         this._timer = setInterval(this._onTimer.bind(this), INTERPOLATION_INTERVAL);
@@ -356,6 +373,31 @@ Controller.prototype._softmodeNextStep = function () {
     this._startInterpolationWork(target, SOFTMODE_STEP);
 };
 
+/* Modes.EFFECT only */
+Controller.prototype._startEffectWork = function(effect) {
+    this.mode = Modes.EFFECT;
+    this._effect = effect;
+    this._effectstep = 0;
+    this._effectNextStep();
+};
+
+/* starts the next keyframe, returns false when the program is over */
+Controller.prototype._effectNextStep = function () {
+    if (this._effectstep >= this._effect.keyframes.length) {
+        if (! this._effect.loop) {
+            // the last color stays
+            this.mode = Modes.COLOR;
+            return false;
+        }
+        this._effectstep = 0;
+    }
+
+    var keyframe = this._effect.keyframes[this._effectstep++];
+    var step = INTERPOLATION_INTERVAL / Math.max(keyframe.duration, INTERPOLATION_INTERVAL);
+    this._startInterpolationWork(keyframe.color, step, Easings[keyframe.easing]);
+    return true;
+};
+
 Controller.prototype._executeCommand = function(cmd, callback) {
     var action = cmd.action;
     var value = cmd.value;
@@ -393,8 +435,10 @@ Controller.prototype._executeCommand = function(cmd, callback) {
         this.white = value;
         this._syncStatus(callback);
     } else if (action === Commands.COLOR) {
-        if (this.mode === Modes.COLOR || this.mode === Modes.SOFT) {
+        if (this.mode === Modes.COLOR || this.mode === Modes.SOFT || this.mode === Modes.EFFECT) {
+            // fades from the current color, replacing any running program
             this.mode = Modes.COLOR;
+            this._effect = null;
             this._startInterpolationWork(value, COLOR_STEP);
             callback();
         } else {
@@ -406,6 +450,9 @@ Controller.prototype._executeCommand = function(cmd, callback) {
     } else if (action === Commands.SOFT) {
         this._startSoftmodeWork();
         callback();
+    } else if (action === Commands.EFFECT) {
+        this._startEffectWork(value);
+        callback();
     } else {
         console.log("ERROR: unrecognized command: ", action);
         callback();
@@ -437,8 +484,8 @@ Controller.prototype.connect = function() {
 
 /* stop any action we are taking to connect */
 Controller.prototype.disconnect = function() {
-    // in soft mode, we need to be connected
-    if (this.mode === Modes.SOFT)
+    // in soft and effect modes, we need to be connected
+    if (this.mode === Modes.SOFT || this.mode === Modes.EFFECT)
         return;
 
     this._wants_connected = false;
@@ -28,6 +28,7 @@ var Modes = {
   DISCO: 'disco',
   COOL: 'cool',
   SOFT: 'soft',
+  EFFECT: 'effect',
   // TODO add Warm mode support
 };
 
@@ -39,6 +40,7 @@ var Commands = {
   DISCO: 'disco',
   COOL: 'cool',
   SOFT: 'soft',
+  EFFECT: 'effect',     // value: {loop, keyframes: [{color, easing, duration}]}
   // TODO add Warm command
 };
 
@@ -77,6 +79,8 @@ var Controller = function () {
     progress: 1.0,
     timer: null,
     soft_stage: 0,
+    effect: null,                 /* Modes.EFFECT program */
+    effect_stage: 0,
     interpstep: COLOR_STEP,
     active: false,
     syncing: true,
@@ -235,7 +239,7 @@ Controller.prototype.syncToLumen = function() {
     this.lumen.coolMode(callback);
   else if (new_status.mode === Modes.WHITE)
     this.lumen.white(new_status.white*99, callback);
-  else if (new_status.mode === Modes.COLOR || new_status.mode === Modes.SOFT) {
+  else if (new_status.mode === Modes.COLOR || new_status.mode === Modes.SOFT || new_status.mode === Modes.EFFECT) {
     this.lumen.color(new_status.color[0]*99, new_status.color[1]*99, new_status.color[2]*99, callback);
   }else
     console.log("Unknown mode", new_status.mode);
@@ -291,6 +295,9 @@ Controller.prototype.commandToStatus = function(command) {
       new_status.color = [SOFTMODE_MIN, SOFTMODE_MIN, SOFTMODE_MIN];
     new_status.mode = Modes.SOFT;
     this.startSoftMode();
+  } else if (action === Commands.EFFECT) {
+    new_status.mode = Modes.EFFECT;
+    this.startEffect(value);
   } else {
     console.log("ERROR: unrecognized command: ", action);
   }
@@ -327,7 +334,21 @@ function linear_interpolation(from, to, p) {
   return (ret.length == 1) ? ret[0] : ret;
 }
 
-/* Modes.COLOR | Modes.SOFT */
+/* easing curves of the effect keyframes, p in [0, 1] */
+var Easings = {
+  l: function(p) { return p; },
+  i: function(p) { return p * p * p; },
+  o: function(p) { return 1 - (1-p) * (1-p) * (1-p); },
+  s: function(p) { return (p < 0.5) ? 4 * p * p * p : 1 - 4 * (1-p) * (1-p) * (1-p); },
+};
+
+function eased_interpolation(easing) {
+  return function(from, to, p) {
+    return linear_interpolation(from, to, easing(p));
+  };
+}
+
+/* Modes.COLOR | Modes.SOFT | Modes.EFFECT */
 Controller.prototype.startInterpolation = function(target, step, property, interp_fn) {
   this.interp.progress = 0.0;
   this.interp.initial = this.status[property];
@@ -350,10 +371,19 @@ Controller.prototype.startSoftMode = function() {
   this.softModeNextStep();
 };
 
+/* Modes.EFFECT only */
+Controller.prototype.startEffect = function(effect) {
+  this.interp.effect = effect;
+  this.interp.effect_stage = 0;
+  this.effectNextStep();
+};
+
 Controller.prototype.interpolationStep = function() {
   if (this.interp.progress == 1.0) {
     if (this.status.mode === Modes.SOFT)
       this.softModeNextStep();
+    else if ((this.status.mode === Modes.EFFECT) && this.effectNextStep())
+      ;
     else if (this.interp.active) {
       this.stopInterpolation();
       this.emit('state-sync');
@@ -386,6 +416,25 @@ Controller.prototype.softModeNextStep = function () {
   this.startInterpolation(target, SOFTMODE_STEP, "color");
 };
 
+/* starts the next keyframe, returns false when the program is over */
+Controller.prototype.effectNextStep = function () {
+  var effect = this.interp.effect;
+
+  if (this.interp.effect_stage >= effect.keyframes.length) {
+    if (! effect.loop) {
+      // the last color stays
+      this.status.mode = Modes.COLOR;
+      return false;
+    }
+    this.interp.effect_stage = 0;
+  }
+
+  var keyframe = effect.keyframes[this.interp.effect_stage++];
+  var step = INTERPOLATION_INTERVAL / Math.max(keyframe.duration, INTERPOLATION_INTERVAL);
+  this.startInterpolation(keyframe.color, step, "color", eased_interpolation(Easings[keyframe.easing]));
+  return true;
+};
+
 Controller.prototype.interpolationTimeout = function() {
   if(this.interp.syncing)
     return;
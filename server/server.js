@@ -16,6 +16,7 @@ var REPLY_ONLINE = "online";
 var REQUEST_COLOR = "/color";
 var REQUEST_ONOFF = "/ison";
 var REQUEST_STATUS = "/status";
+var REQUEST_STATE = "/state";           // on/off, mode, color and white level in a single reply
 
 // :: client commands ::
 var COMMAND_ON = "/on";
@@ -25,6 +26,7 @@ var COMMAND_WHITE = "/warm";
 var COMMAND_DISCO = "/disco";
 var COMMAND_SOFT = "/soft";
 var COMMAND_COOL = "/cool";
+var COMMAND_EFFECT = "/effect";         // keyframes program, see _parseEffectParam
 
 // :: server response to commands ::
 var RESPONSE_OK = "OK";
@@ -32,6 +34,7 @@ var RESPONSE_PENDING = "PENDING";
 var RESPONSE_ERROR = "BAD REQUEST";
 var RESPONSE_OFFLINE = "OFFLINE";
 var RESPONSE_ALIVE = "+";
+var RESPONSE_SEPARATOR = ",";
 
 function Server(controller) {
     this._socket = null;
@@ -83,6 +86,37 @@ Server.prototype._parseColorParam = function (hexstr) {
     ] : null;
 };
 
+/* "L,RRGGBBeN,..." -> {loop, keyframes: [{color, easing, duration}]}
+ * L is 1 to repeat the program, e is the easing (l, i, o, s) and N the duration in ms */
+Server.prototype._parseEffectParam = function (query) {
+    var fields = query.split(",");
+    var keyframes = [];
+
+    if (fields.length < 2 || (fields[0] !== "0" && fields[0] !== "1"))
+        return null;
+
+    for (var i=1; i<fields.length; i++) {
+        var result = /^([a-f\d]{2})([a-f\d]{2})([a-f\d]{2})([lios])(\d{1,5})$/i.exec(fields[i]);
+        if (! result)
+            return null;
+
+        keyframes.push({
+            color: [
+                parseInt(result[1], 16) / 255.,
+                parseInt(result[2], 16) / 255.,
+                parseInt(result[3], 16) / 255.,
+            ],
+            easing: result[4].toLowerCase(),
+            duration: parseInt(result[5]),
+        });
+    }
+
+    return {
+        loop: (fields[0] === "1"),
+        keyframes: keyframes,
+    };
+};
+
 Server.prototype._processRequest = function (request) {
     var parsed = this._splitRequest(request);
     var pathname = parsed.path;
@@ -113,6 +147,16 @@ Server.prototype._processRequest = function (request) {
             return RESPONSE_OFFLINE;
 
         return this._formatColorResponse(this._controller.color);
+    } else if (pathname === REQUEST_STATE) {
+        if (! this._controller.ready)
+            return RESPONSE_OFFLINE;
+
+        return [
+            this._controller.lighton ? REPLY_ON : REPLY_OFF,
+            this._controller.mode,
+            this._formatColorResponse(this._controller.color),
+            Math.round(this._controller.white * 100),
+        ].join(RESPONSE_SEPARATOR);
     }
 
     // Imperative commands
@@ -147,6 +191,15 @@ Server.prototype._processRequest = function (request) {
         pending = this._controller.command(Controller.Commands.COOL);
     } else if (pathname === COMMAND_SOFT) {
         pending = this._controller.command(Controller.Commands.SOFT);
+    } else if (pathname === COMMAND_EFFECT) {
+        if (query === null)
+            return RESPONSE_ERROR;
+
+        var effect = this._parseEffectParam(query);
+        if (! effect)
+            return RESPONSE_ERROR;
+
+        pending = this._controller.command(Controller.Commands.EFFECT, effect);
     }
 
     if (pending)
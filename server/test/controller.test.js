@@ -0,0 +1,74 @@
+var test = require('node:test');
+var assert = require('node:assert');
+var Module = require('module');
+
+// the bluetooth modules are replaced, the lumen is simulated by FakeLumen
+var stubs = {
+    'lumen': { stopDiscoverAll: function() {} },
+    'noble': {},
+};
+var load = Module._load;
+Module._load = function(request, parent, isMain) {
+    if (stubs.hasOwnProperty(request))
+        return stubs[request];
+    return load.apply(this, arguments);
+};
+
+var Controller = require('../controller');
+var Server = require('../server');
+
+var FakeLumen = function() {
+    this.connectedAndSetUp = true;
+    this.rgb = null;
+};
+
+FakeLumen.prototype.color = function(r, g, b, callback) {
+    this.rgb = [r/99, g/99, b/99];
+    setImmediate(callback);
+};
+
+['turnOff', 'disco1Mode', 'coolMode', 'white'].forEach(function(name) {
+    FakeLumen.prototype[name] = function() {
+        setImmediate(arguments[arguments.length - 1]);
+    };
+});
+
+/* a controller connected to a FakeLumen, served by a Server without sockets */
+function connectedServer() {
+    var controller = new Controller.Controller();
+    controller._lumen = new FakeLumen();
+    controller._stopped = false;
+    controller._busy = false;
+    controller.ready = true;
+    return new Server.Server(controller);
+}
+
+function sleep(millis) {
+    return new Promise(function(resolve) { setTimeout(resolve, millis); });
+}
+
+test('/rgb replaces a running effect', async function(t) {
+    var server = connectedServer();
+    var controller = server._controller;
+
+    // a leftover timer would keep the test running
+    t.after(function() { controller._stopAnyWork(); });
+
+    // a single slow keyframe to red
+    assert.strictEqual(server._processRequest('/effect?0,ff0000l60000'), 'OK');
+    await sleep(200);
+    assert.strictEqual(controller.mode, Controller.Modes.EFFECT);
+
+    assert.strictEqual(server._processRequest('/rgb?0x0000ff'), 'OK');
+    assert.strictEqual(controller.mode, Controller.Modes.COLOR);
+
+    // the color fade takes 100 steps of 40 ms
+    var deadline = Date.now() + 8000;
+    while (controller._timer && Date.now() < deadline)
+        await sleep(100);
+
+    assert.strictEqual(controller._timer, null, 'fade still running');
+    assert.strictEqual(controller.mode, Controller.Modes.COLOR);
+    assert.deepStrictEqual(controller.color, [0, 0, 1]);
+    assert.deepStrictEqual(controller._lumen.rgb, [0, 0, 1]);
+});